@@ -1,34 +1,61 @@
 package com.psychobit.campfire;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.bukkit.ChatColor;
+import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
-import org.bukkit.entity.Arrow;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.Player;
+import org.bukkit.entity.Projectile;
+import org.bukkit.entity.ThrownPotion;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
 import org.bukkit.event.Listener;
 import org.bukkit.event.entity.EntityDamageByEntityEvent;
 import org.bukkit.event.entity.EntityDamageEvent;
 import org.bukkit.event.entity.EntityDeathEvent;
+import org.bukkit.event.entity.PotionSplashEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.server.PluginDisableEvent;
 import org.bukkit.event.server.PluginEnableEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.potion.PotionEffect;
+import org.bukkit.potion.PotionEffectType;
+import org.bukkit.projectiles.ProjectileSource;
 
 import com.sk89q.worldguard.bukkit.WorldGuardPlugin;
 import com.sk89q.worldguard.protection.flags.DefaultFlag;
+import com.sk89q.worldguard.protection.flags.StateFlag;
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
 
 /**
  * Campfire is a plugin to remove spawn camping on PvP enabled servers.
@@ -41,11 +68,35 @@ import com.sk89q.worldguard.protection.flags.DefaultFlag;
  */
 public class Campfire extends JavaPlugin implements Listener
 {
+	/**
+	 * Potion effects that count as an attack when thrown at a player
+	 */
+	private static final Set<PotionEffectType> HARMFUL_EFFECTS = new HashSet<PotionEffectType>( Arrays.asList(
+		PotionEffectType.HARM, PotionEffectType.POISON, PotionEffectType.WEAKNESS,
+		PotionEffectType.SLOW, PotionEffectType.SLOW_DIGGING, PotionEffectType.BLINDNESS,
+		PotionEffectType.CONFUSION, PotionEffectType.HUNGER, PotionEffectType.WITHER ) );
+	
+	/**
+	 * Actions offered by tab completion
+	 */
+	private static final String[] ACTIONS = { "terminate", "confirm", "timeleft", "countdown", "reset", "export", "import", "reload" };
+	
+	/**
+	 * Most player names offered by tab completion
+	 */
+	private static final int MAX_COMPLETIONS = 20;
+	
 	/**
 	 * Player data
 	 * Contains all the info Campfire needs for a specific player
 	 */
-	private HashMap<String,PlayerData> _playerData;
+	private ConcurrentHashMap<String,PlayerData> _playerData;
+	
+	/**
+	 * Names of every known player
+	 * Used to find offline players and complete names
+	 */
+	private NameTrie _names;
 	
 	/**
 	 * Scheduled repeating task
@@ -54,31 +105,85 @@ public class Campfire extends JavaPlugin implements Listener
 	private int _thread;
 	
 	/**
-	 * Time in seconds a player should be protected by campfire
-	 * Configurable in the config.yml - defaults to 20 min
+	 * Policy used for worlds without their own section in the config.yml
+	 * Duration defaults to 20 min and buffer to 5 blocks
 	 */
-	private int _duration;
+	private WorldPolicy _defaultPolicy;
 	
 	/**
-	 * Distance around a player that can't be lava'd or set on fire
-	 * Configurable in the config.yml - defaults to 5 blocks
+	 * Protection policy for each loaded world, keyed by world id
+	 * Worlds without protection have no entry
 	 */
-	private int _bufferDist;
+	private ConcurrentHashMap<UUID,WorldPolicy> _policies;
 	
 	/**
-	 * Should a player's data be reset upon death?
+	 * WorldGuard plugin
 	 */
-	private boolean _resetOnDeath;
+	private WorldGuardPlugin _worldguard;
 	
 	/**
-	 * Don't count world guard protected areas
+	 * Zones defined in the config.yml where the timer is paused
 	 */
-	private boolean _useWorldGuard;
+	private ArrayList<Zone> _configZones;
 	
 	/**
-	 * WorldGuard plugin
+	 * Index of the zones of each world, keyed by world id
+	 * Worlds without zones have no entry
 	 */
-	private WorldGuardPlugin _worldguard;
+	private ConcurrentHashMap<UUID,WorldZones> _zones;
+	
+	/**
+	 * Scheduled repeating task
+	 * Rebuilds the zones so WorldGuard region changes are picked up
+	 */
+	private int _zoneThread;
+	
+	/**
+	 * Protection sync with other servers, null if disabled in the config.yml
+	 */
+	private ProtectionSync _sync;
+	
+	/**
+	 * Scheduled repeating task
+	 * Exchanges protection changes with other servers
+	 */
+	private int _syncThread;
+	
+	/**
+	 * Damage and item handlers, registered while a protected player is online
+	 */
+	private ProtectionListener _protectionListener;
+	
+	/**
+	 * Zone handler, registered while a protected player is online and a world has zones
+	 */
+	private ZoneListener _zoneListener;
+	
+	/**
+	 * Listeners currently registered
+	 */
+	private HashSet<Listener> _activeListeners;
+	
+	/**
+	 * Whether or not a listener refresh is already scheduled
+	 */
+	private volatile boolean _refreshPending;
+	
+	/**
+	 * Whether or not an export or import is running
+	 */
+	private AtomicBoolean _transferRunning;
+	
+	/**
+	 * Sidebar countdown, null if disabled in the config.yml
+	 */
+	private CountdownRenderer _countdown;
+	
+	/**
+	 * Scheduled repeating task
+	 * Refreshes the countdown every tick
+	 */
+	private int _countdownThread;
 	
 	
 	/**
@@ -89,9 +194,13 @@ public class Campfire extends JavaPlugin implements Listener
 	public void onEnable()
 	{
 		// Load the player data
-		this._playerData = new HashMap<String,PlayerData>();
+		this._playerData = new ConcurrentHashMap<String,PlayerData>();
 		this.loadData();
 		
+		// Index the names of every known player
+		this._names = new NameTrie();
+		for ( String playerName : this._playerData.keySet() ) this._names.add( playerName );
+		
 		// Define default config values if not set
 		if ( !this.getConfig().contains( "Duration" ) )
 		{
@@ -99,14 +208,21 @@ public class Campfire extends JavaPlugin implements Listener
 			this.getConfig().set( "Buffer", 5 );
 			this.getConfig().set( "ResetOnDeath", true );
 			this.getConfig().set( "WorldGuardAreas", true );
+			this.getConfig().createSection( "Worlds" );
+			this.getConfig().createSection( "Zones" );
 			this.saveConfig();
 		}
 		
 		// Set the duration and buffer as defined in the config
-		this._duration = this.getConfig().getInt( "Duration", 60 * 20 );
-		this._bufferDist= this.getConfig().getInt( "Buffer", 5 );
-		this._resetOnDeath = this.getConfig().getBoolean( "ResetOnDeath", true );
-		this._useWorldGuard = this.getConfig().getBoolean( "WorldGuardAreas", true );
+		this._defaultPolicy = new WorldPolicy(
+			this.getConfig().getInt( "Duration", 60 * 20 ),
+			this.getConfig().getInt( "Buffer", 5 ),
+			this.getConfig().getBoolean( "ResetOnDeath", true ),
+			this.getConfig().getBoolean( "WorldGuardAreas", true ) );
+		
+		// Resolve the policy for every loaded world
+		this._policies = new ConcurrentHashMap<UUID,WorldPolicy>();
+		for ( World world : this.getServer().getWorlds() ) this.loadPolicy( world );
 		
 		// Check for worldguard
 		Plugin p = this.getServer().getPluginManager().getPlugin( "WorldGuard" );
@@ -116,14 +232,77 @@ public class Campfire extends JavaPlugin implements Listener
 			this._worldguard= ( WorldGuardPlugin ) p;
 		}
 		
-		// Register events
+		// Read the zones from the config and index them per world
+		this._configZones = new ArrayList<Zone>();
+		ConfigurationSection zoneConfig = this.getConfig().getConfigurationSection( "Zones" );
+		if ( zoneConfig != null )
+		{
+			for ( String name : zoneConfig.getKeys( false ) )
+			{
+				if ( !zoneConfig.isConfigurationSection( name ) ) continue;
+				Zone zone = Zone.fromConfig( name, zoneConfig.getConfigurationSection( name ) );
+				if ( zone != null ) this._configZones.add( zone );
+			}
+		}
+		this._zones = new ConcurrentHashMap<UUID,WorldZones>();
+		this.loadAllZones();
+		
+		// Register events, the hot ones only when they have work to do
 		this.getServer().getPluginManager().registerEvents( this, this );
+		this._protectionListener = new ProtectionListener( this );
+		this._zoneListener = new ZoneListener( this );
+		this._activeListeners = new HashSet<Listener>();
+		this.refreshListeners();
+		
+		// Nothing is being exported or imported yet
+		this._transferRunning = new AtomicBoolean( false );
 		
 		// Start the task to update player data
         final Campfire plugin = this;
         this._thread = this.getServer().getScheduler().scheduleAsyncRepeatingTask( this, new Runnable() {
             public void run() { plugin.updatePlayerData(); }
         }, 20L, 20L ); // Update every second
+        
+        // Start syncing with other servers if enabled
+        if ( this.getConfig().getBoolean( "Sync.Enabled", false ) )
+        {
+        	String directory = this.getConfig().getString( "Sync.Directory", "" );
+        	String serverId = this.getConfig().getString( "Sync.ServerId", "" );
+        	if ( directory.equals( "" ) || serverId.equals( "" ) )
+        	{
+        		System.out.println( "[Campfire] Sync needs a Directory and a ServerId, not syncing!" );
+        	} else {
+        		int retention = this.getConfig().getInt( "Sync.Retention", 60 * 10 );
+        		SyncTransport transport = new DirectoryTransport( new File( directory ), serverId, 
+        			retention, new File( this.getDataFolder(), "sync.properties" ) );
+        		long interval = 20L * this.getConfig().getInt( "Sync.Interval", 5 );
+        		
+        		// Publish every player twice per retention period, so the files
+        		// still around always hold every player's latest state
+        		this._sync = new ProtectionSync( this._playerData, this._names, transport, serverId, retention / 2 );
+        		this._syncThread = this.getServer().getScheduler().scheduleAsyncRepeatingTask( this, new Runnable() {
+        			public void run() { plugin._sync.run(); plugin.requestRefresh(); }
+        		}, interval, interval );
+        	}
+        }
+        
+        // Rebuild the zones now and then, WorldGuard regions may be changed at any time
+        int zoneRefresh = this.getConfig().getInt( "WorldGuardRefresh", 60 );
+        if ( zoneRefresh > 0 )
+        {
+        	this._zoneThread = this.getServer().getScheduler().scheduleSyncRepeatingTask( this, new Runnable() {
+        		public void run() { if ( plugin._worldguard != null ) plugin.reloadZones(); }
+        	}, 20L * zoneRefresh, 20L * zoneRefresh );
+        } else {
+        	this._zoneThread = -1;
+        }
+        
+        // Start the countdown display if enabled
+        if ( this.getConfig().getBoolean( "Countdown", false ) )
+        {
+        	this._countdown = new CountdownRenderer( this );
+        	this._countdownThread = this.getServer().getScheduler().scheduleSyncRepeatingTask( this, this._countdown, 1L, 1L );
+        }
 	}
 	
 	/**
@@ -143,6 +322,8 @@ public class Campfire extends JavaPlugin implements Listener
 			sender.sendMessage( ChatColor.GRAY + "Removes your protection early" );
 			sender.sendMessage( "/campfire timeleft [player] " );
 			sender.sendMessage( ChatColor.GRAY + "Gives the duration left for a player's protection" );
+			sender.sendMessage( "/campfire countdown " );
+			sender.sendMessage( ChatColor.GRAY + "Shows or hides your protection countdown" );
 			return true;
 		}
 		
@@ -164,8 +345,7 @@ public class Campfire extends JavaPlugin implements Listener
 			if ( args.length == 2 )
 			{
 				// Search for a target
-				Player targetPlayer = this.getServer().getPlayer( args[1] );
-				if ( targetPlayer != null ) target = targetPlayer.getName();
+				target = this.findTarget( args[1] );
 			} else {
 				// Must have a target
 				sender.sendMessage( "You must specify a target!" );
@@ -183,7 +363,9 @@ public class Campfire extends JavaPlugin implements Listener
 			PlayerData data = this._playerData.get( target );
 			data.reset();
 			sender.sendMessage( "Player's protection reset!" );
-			this.getServer().getPlayer( target ).sendMessage( "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] Your protection has been reset!" );
+			this.refreshListeners();
+			Player targetPlayer = this.getServer().getPlayerExact( target );
+			if ( targetPlayer != null ) targetPlayer.sendMessage( "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] Your protection has been reset!" );
 			return true;
 		}
 		/*
@@ -238,6 +420,7 @@ public class Campfire extends JavaPlugin implements Listener
 				}
 				// Disable their protection
 				data.setEnabled( false );
+				this.refreshListeners();
 				
 				// Announce it to the server
 				this.getServer().broadcastMessage( "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] " + playerName + " Terminated their protection!" );
@@ -248,6 +431,77 @@ public class Campfire extends JavaPlugin implements Listener
 				player.sendMessage( "Your protection has already expired!" );
 				return true;
 			}
+		/*
+		 * Stream the player data to or from a file in the background
+		 */
+		} else if ( args[0].equalsIgnoreCase( "export" ) || args[0].equalsIgnoreCase( "import" ) ) {
+			// Permission check
+			boolean export = args[0].equalsIgnoreCase( "export" );
+			if ( !sender.hasPermission( export ? "campfire.export" : "campfire.import" ) )
+			{
+				sender.sendMessage( ChatColor.RED + "You don't have permission to do that!" );
+				return true;
+			}
+			
+			// Files live in the plugin folder
+			String fileName = ( args.length == 2 ? args[1] : "players.tsv.gz" );
+			if ( fileName.contains( "/" ) || fileName.contains( "\\" ) || fileName.startsWith( "." ) || !fileName.endsWith( ".tsv.gz" ) )
+			{
+				sender.sendMessage( ChatColor.RED + "Invalid file name, it must end in .tsv.gz!" );
+				return true;
+			}
+			File file = new File( this.getDataFolder(), fileName );
+			if ( !export && !file.exists() )
+			{
+				sender.sendMessage( ChatColor.RED + "File not found!" );
+				return true;
+			}
+			
+			// Only one at a time
+			if ( !this._transferRunning.compareAndSet( false, true ) )
+			{
+				sender.sendMessage( ChatColor.RED + "An export or import is already running!" );
+				return true;
+			}
+			this.getServer().getScheduler().scheduleAsyncDelayedTask( this, new StoreTransfer( this, this._playerData, this._names, file, export, sender, this._transferRunning ) );
+			sender.sendMessage( ( export ? "Exporting" : "Importing" ) + " player data..." );
+			return true;
+		/*
+		 * Rebuild the zones right away, picking up WorldGuard region changes
+		 */
+		} else if ( args[0].equalsIgnoreCase( "reload" ) ) {
+			// Permission check
+			if ( !sender.hasPermission( "campfire.reload" ) )
+			{
+				sender.sendMessage( ChatColor.RED + "You don't have permission to do that!" );
+				return true;
+			}
+			this.reloadZones();
+			sender.sendMessage( "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] Zones reloaded!" );
+			return true;
+		/*
+		 * Toggle the sidebar countdown for the player
+		 */
+		} else if ( args[0].equalsIgnoreCase( "countdown" ) ) {
+			// Only allow players to use this command
+			if ( player == null )
+			{
+				sender.sendMessage( "Only in-game players can use that command!" );
+				return true;
+			}
+			
+			// Make sure the countdown is enabled
+			PlayerData data = this._playerData.get( player.getName() );
+			if ( this._countdown == null || data == null )
+			{
+				player.sendMessage( "The countdown is not available!" );
+				return true;
+			}
+			
+			// Flip it, the renderer picks it up within a second
+			data.setCountdownHidden( !data.countdownHidden() );
+			player.sendMessage( "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] Countdown " + ( data.countdownHidden() ? "hidden" : "shown" ) + "!" );
+			return true;
 		/*
 		 * Allows players to check how much time they have left on their protection,
 		 * as well as check the time remaining for other players
@@ -258,8 +512,7 @@ public class Campfire extends JavaPlugin implements Listener
 			if ( args.length == 2 )
 			{
 				// Search for a target
-				Player targetPlayer = this.getServer().getPlayer( args[1] );
-				if ( targetPlayer != null ) target = targetPlayer.getName();
+				target = this.findTarget( args[1] );
 			} else if ( player != null ) {
 				// Default to the issuer's name
 				target = player.getName();
@@ -278,14 +531,28 @@ public class Campfire extends JavaPlugin implements Listener
 			
 			// Check if they have already expired
 			PlayerData data = this._playerData.get( target );
+			if ( data == null )
+			{
+				sender.sendMessage( ChatColor.RED + "Player not found!" );
+				return true;
+			}
 			if ( !data.isEnabled() )
 			{
 				sender.sendMessage( target + ": protection expired!" );
 				return true;
 			}
 			
+			// Check if their current world has protection at all
+			Player targetPlayer = this.getServer().getPlayerExact( target );
+			WorldPolicy policy = ( targetPlayer != null ? this.getPolicy( targetPlayer.getWorld() ) : this._defaultPolicy );
+			if ( policy == null )
+			{
+				sender.sendMessage( target + ": no protection in this world!" );
+				return true;
+			}
+			
 			// Give them the time left
-			int timeLeft = this._duration - data.getTimeElapsed(); 
+			int timeLeft = policy.getDuration() - data.getTimeElapsed(); 
 			int min = ( timeLeft / 60 );
 			sender.sendMessage( target + ": " + min + " min of protection left!" );
 			return true;
@@ -298,17 +565,77 @@ public class Campfire extends JavaPlugin implements Listener
 		sender.sendMessage( ChatColor.GRAY + "Removes your protection early" );
 		sender.sendMessage( "/campfire timeleft [player] " );
 		sender.sendMessage( ChatColor.GRAY + "Gives the duration left for a player's protection" );
+		sender.sendMessage( "/campfire countdown " );
+		sender.sendMessage( ChatColor.GRAY + "Shows or hides your protection countdown" );
 		return true;
 	}
 
 	
+	/**
+	 * Complete sub-commands and player names
+	 * @param sender Who sent the command
+	 * @param command Command that was sent
+	 * @param alias
+	 * @param args Arguments typed so far
+	 */
+	public List<String> onTabComplete( CommandSender sender, Command command, String alias, String[] args )
+	{
+		ArrayList<String> completions = new ArrayList<String>();
+		if ( args.length == 1 )
+		{
+			// Complete the action
+			for ( String action : ACTIONS )
+			{
+				boolean admin = ( action.equals( "reset" ) || action.equals( "export" ) || action.equals( "import" ) || action.equals( "reload" ) );
+				if ( admin && !sender.hasPermission( "campfire." + action ) ) continue;
+				if ( action.startsWith( args[0].toLowerCase() ) ) completions.add( action );
+			}
+		} else if ( args.length == 2 && ( args[0].equalsIgnoreCase( "timeleft" ) || args[0].equalsIgnoreCase( "reset" ) ) ) {
+			// Complete the target from every known player
+			completions.addAll( this._names.complete( args[1], MAX_COMPLETIONS ) );
+		}
+		return completions;
+	}
+	
+	/**
+	 * Find the player a command is aimed at
+	 * Exact names are matched before prefixes, online players before offline ones
+	 * @param name Full name or a prefix only one player has
+	 * @return Player name, or an empty string if nobody was found
+	 */
+	private String findTarget( String name )
+	{
+		// Exact matches
+		Player player = this.getServer().getPlayerExact( name );
+		if ( player != null && this._playerData.containsKey( player.getName() ) ) return player.getName();
+		String known = this._names.find( name );
+		if ( known != null ) return known;
+		
+		// Prefix matches
+		player = this.getServer().getPlayer( name );
+		if ( player != null && this._playerData.containsKey( player.getName() ) ) return player.getName();
+		known = this._names.match( name );
+		return ( known != null ? known : "" );
+	}
+	
 	/**
 	 * Save player data and stop the scheduled task
 	 */
 	public void onDisable()
 	{
+		if ( this._sync != null )
+		{
+			this.getServer().getScheduler().cancelTask( this._syncThread );
+			this._sync.close();
+		}
 		this.saveData();
 		this.getServer().getScheduler().cancelTask( this._thread );
+		if ( this._zoneThread != -1 ) this.getServer().getScheduler().cancelTask( this._zoneThread );
+		if ( this._countdown != null )
+		{
+			this.getServer().getScheduler().cancelTask( this._countdownThread );
+			this._countdown.clearAll();
+		}
 	}
 	
 	/**
@@ -335,7 +662,7 @@ public class Campfire extends JavaPlugin implements Listener
 	{
 		try {
 			ObjectInputStream ois = new ObjectInputStream( new FileInputStream( this.getDataFolder() + "/players.dat" ) );
-			this._playerData = ( HashMap<String,PlayerData> ) ois.readObject();
+			this._playerData = new ConcurrentHashMap<String,PlayerData>( ( Map<String,PlayerData> ) ois.readObject() );
 			ois.close();
 		} catch ( FileNotFoundException e ) { // Ignore it
 		} catch ( Exception e ) {
@@ -365,28 +692,33 @@ public class Campfire extends JavaPlugin implements Listener
 				// Add them to the list
 				PlayerData data = new PlayerData();
 				this._playerData.put( playerName, data );
+				this._names.add( playerName );
 				this._playerData.get( playerName ).setUpdateTime();
+				this.requestRefresh();
 				player.sendMessage( "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] Starting protection!" );
 				player.sendMessage( "Type '/campfire' for info on PvP Protection" );
 			} else if ( !this._playerData.get( playerName ).isEnabled() ) continue; // Skip over expired players
 			
 			// Increment their time and update their last updated time
+			// The timer is paused in protected zones and in worlds without protection
 			PlayerData data = this._playerData.get( playerName );
-			if ( data.inProtectedZone() )
+			WorldPolicy policy = this.getPolicy( player.getWorld() );
+			if ( policy == null || data.inProtectedZone() )
 			{
 				data.setUpdateTime();
-				return;
+				continue;
 			}
 			data.update();
 			
 			
 			// Check for expiration
-			int timeLeft = this._duration - data.getTimeElapsed();
+			int timeLeft = policy.getDuration() - data.getTimeElapsed();
 			if ( timeLeft <= 0 )
 			{
 				this.getServer().broadcastMessage( "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] Protection for " + playerName + " Expired!" );
 				player.sendMessage( "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] You are vulnerable!" );
 				data.setEnabled( false );
+				this.requestRefresh();
 			} else if ( timeLeft % 60 == 0 ) {
 				int min = timeLeft / 60;
 				player.sendMessage( "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] Expires in " + min + " minute" + ( min != 1 ? "s" : "" ) + "!" );
@@ -400,18 +732,32 @@ public class Campfire extends JavaPlugin implements Listener
 	
 	/**
 	 * Update player's protected zone status
+	 * Called by the zone listener
 	 * @param e
 	 */
-	@EventHandler( priority = EventPriority.LOW )
 	public void onMove( PlayerMoveEvent e )
 	{
 		// Basic checks
-		if ( !this._useWorldGuard ) return;
-		if ( this._worldguard == null ) return;
 		if ( e.isCancelled() ) return;
 		
+		// Only look again when they move to another block
+		Location from = e.getFrom();
+		Location to = e.getTo();
+		if ( from.getBlockX() == to.getBlockX() && from.getBlockY() == to.getBlockY() && from.getBlockZ() == to.getBlockZ() 
+			&& from.getWorld().equals( to.getWorld() ) ) return;
+		
+		this.checkZone( e.getPlayer(), to );
+	}
+	
+	/**
+	 * Update a player's protected zone status for a location
+	 * Worlds without zones count as outside any zone
+	 * @param player
+	 * @param location
+	 */
+	private void checkZone( Player player, Location location )
+	{
 		// Alias
-		Player player = e.getPlayer();
 		String playerName = player.getName();
 		PlayerData data = this._playerData.get( playerName );
 		
@@ -419,14 +765,11 @@ public class Campfire extends JavaPlugin implements Listener
 		if ( player.isOp() ) return;
 		
 		// Ignore expired players
-		if ( !data.isEnabled() ) return;
-		
-		// Check if they are in NoPvP or Invincible regions
-		boolean inNoPvP = !this._worldguard.getRegionManager( player.getWorld() ).getApplicableRegions( player.getLocation() ).allows( DefaultFlag.PVP );
-		boolean inInvincible = this._worldguard.getRegionManager( player.getWorld() ).getApplicableRegions( player.getLocation() ).allows( DefaultFlag.INVINCIBILITY );
+		if ( data == null || !data.isEnabled() ) return;
 		
 		// Send messages on state change and don't update if in a protected zone 
-		if ( inNoPvP || inInvincible )
+		WorldZones zones = this._zones.get( location.getWorld().getUID() );
+		if ( zones != null && zones.contains( location.getX(), location.getY(), location.getZ() ) )
 		{
 			if ( !data.inProtectedZone() )
 			{
@@ -455,6 +798,7 @@ public class Campfire extends JavaPlugin implements Listener
 		{
 			System.out.println( "[Campfire] Found WorldGuard!" );
 			this._worldguard = ( WorldGuardPlugin ) p; 
+			this.reloadZones();
 		}
 	}
 	
@@ -470,15 +814,16 @@ public class Campfire extends JavaPlugin implements Listener
 		{
 			System.out.println( "[Campfire] WorldGuard disabled!" );
 			this._worldguard = null; 
+			this.reloadZones();
 		}
 	}
 	
 	
 	/**
 	 * Prevent PvP damage for protected players
+	 * Called by the protection listener
 	 * @param e
 	 */
-	@EventHandler( priority = EventPriority.HIGH )
 	public void onEntityDamage( EntityDamageEvent e )
 	{
 		// Make sure the entity is a player
@@ -489,31 +834,31 @@ public class Campfire extends JavaPlugin implements Listener
 		// Ignore ops
 		if ( target.isOp() ) return;
 		
+		// Ignore worlds without protection
+		if ( this.getPolicy( target.getWorld() ) == null ) return;
 		
 		// Ensure player was damaged by an entity
 		EntityDamageByEntityEvent e2 = null;
 		if ( e instanceof EntityDamageByEntityEvent ) e2 = ( EntityDamageByEntityEvent ) e;
 		if ( e2 == null ) return;
 		
-		// Check for tnt
-		if ( e2.getDamager() instanceof org.bukkit.entity.TNTPrimed )
-		{
-			// TNT damage, prevent it
-			e.setCancelled( true );
-			return;
-		}
+		// TNT is handled by onTntDamage
+		if ( e2.getDamager() instanceof org.bukkit.entity.TNTPrimed ) return;
 		
-		// Finally, make sure it was another player or an arrow from a player
+		// Finally, make sure it was another player or a projectile from a player
 		Player attacker = null;
-		if ( e2.getDamager() instanceof Arrow )
+		if ( e2.getDamager() instanceof Projectile )
 		{
-			// Get the arrow's owner
-			Arrow arrow = ( Arrow ) e2.getDamager();
-			if ( !( arrow.getShooter() instanceof Player ) ) return;
-			attacker = ( Player ) arrow.getShooter();
+			// Get the projectile's owner
+			ProjectileSource shooter = ( ( Projectile ) e2.getDamager() ).getShooter();
+			if ( !( shooter instanceof Player ) ) return;
+			attacker = ( Player ) shooter;
 		} else if( !( e2.getDamager() instanceof Player ) ) return;
 		else attacker = ( Player ) e2.getDamager(); 
 		 
+		// Ignore damage players do to themselves, like ender pearls
+		if ( attacker.equals( target ) ) return;
+		
 		// Ignore ops
 		if ( attacker.isOp() ) return;
 		
@@ -534,6 +879,101 @@ public class Campfire extends JavaPlugin implements Listener
 		}
 	}
 	
+	/**
+	 * Prevent TNT damage to players
+	 * Always registered, it applies whether or not anyone is protected
+	 * @param e
+	 */
+	@EventHandler( priority = EventPriority.HIGH )
+	public void onTntDamage( EntityDamageByEntityEvent e )
+	{
+		// Make sure a player was hurt by TNT
+		if ( !( e.getDamager() instanceof org.bukkit.entity.TNTPrimed ) ) return;
+		if ( !( e.getEntity() instanceof Player ) ) return;
+		Player target = ( Player ) e.getEntity();
+		
+		// Ignore ops
+		if ( target.isOp() ) return;
+		
+		// Ignore worlds without protection
+		if ( this.getPolicy( target.getWorld() ) == null ) return;
+		
+		// TNT damage, prevent it
+		e.setCancelled( true );
+	}
+	
+	/**
+	 * Keep harmful splash potions thrown by players away from protected players
+	 * Called by the protection listener
+	 * @param e
+	 */
+	public void onPotionSplash( PotionSplashEvent e )
+	{
+		if ( e.isCancelled() ) return;
+		
+		// Make sure a player threw it
+		ThrownPotion potion = e.getPotion();
+		if ( !( potion.getShooter() instanceof Player ) ) return;
+		Player thrower = ( Player ) potion.getShooter();
+		
+		// Ignore ops
+		if ( thrower.isOp() ) return;
+		
+		// Ignore worlds without protection
+		if ( this.getPolicy( potion.getWorld() ) == null ) return;
+		
+		// Only harmful potions matter
+		boolean harmful = false;
+		for ( PotionEffect effect : potion.getEffects() )
+		{
+			if ( HARMFUL_EFFECTS.contains( effect.getType() ) ) { harmful = true; break; }
+		}
+		if ( !harmful ) return;
+		
+		// Take the protected players out of the splash
+		for ( Player target : this.getProtectedTargets( thrower, e.getAffectedEntities() ) ) e.setIntensity( target, 0 );
+	}
+	
+	/**
+	 * Find the players an attack on a group of entities must not reach
+	 * The attacker's protection is looked up once for the whole group
+	 * @param attacker
+	 * @param affected Entities hit by the attack
+	 * @return Players to spare
+	 */
+	private List<Player> getProtectedTargets( Player attacker, Collection<LivingEntity> affected )
+	{
+		// Check the attacker
+		PlayerData attackerData = this._playerData.get( attacker.getName() );
+		boolean attackerEnabled = ( attackerData != null && attackerData.isEnabled() );
+		
+		// Protected attackers can't hurt anyone, otherwise spare the protected targets
+		ArrayList<Player> targets = new ArrayList<Player>();
+		for ( LivingEntity entity : affected )
+		{
+			if ( !( entity instanceof Player ) ) continue;
+			Player target = ( Player ) entity;
+			if ( target.equals( attacker ) ) continue;
+			if ( target.isOp() ) continue;
+			if ( !attackerEnabled )
+			{
+				PlayerData targetData = this._playerData.get( target.getName() );
+				if ( targetData == null || !targetData.isEnabled() ) continue;
+			}
+			targets.add( target );
+		}
+		
+		// Tell the attacker once
+		if ( !targets.isEmpty() )
+		{
+			String message;
+			if ( attackerEnabled ) message = "You are under protection! No PvP!";
+			else message = "This player is under protection! No PvP!";
+			attacker.sendMessage( ChatColor.GRAY + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.GRAY + "] " + ChatColor.RED + message );
+		}
+		return targets;
+	}
+	
 	/**
 	 * Reset player data when a player dies
 	 * Gives them protection back if they die
@@ -543,14 +983,15 @@ public class Campfire extends JavaPlugin implements Listener
 	@EventHandler( priority = EventPriority.NORMAL )
 	public void onEntityDeath( EntityDeathEvent e )
 	{
-		// Only reset if config says to
-		if ( !this._resetOnDeath ) return;
-		
 		// Make sure it was a player who died
 		Player target = null;
 		if ( e.getEntity() instanceof Player ) target = ( Player ) e.getEntity();
 		if ( target == null ) return;
 		
+		// Only reset if the world's policy says to
+		WorldPolicy policy = this.getPolicy( target.getWorld() );
+		if ( policy == null || !policy.resetOnDeath() ) return;
+		
 		// Ignore ops
 		if ( target.isOp() ) return;
 		
@@ -558,6 +999,7 @@ public class Campfire extends JavaPlugin implements Listener
 		PlayerData data = this._playerData.get( target.getName() );
 		if ( data != null ) data.reset();
 		this.saveData();
+		this.refreshListeners();
 		
 		// Let them know they have been reset
 		target.sendMessage( ChatColor.GRAY + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.GRAY + "] " + "You have died! Resetting Protection!" );
@@ -583,19 +1025,99 @@ public class Campfire extends JavaPlugin implements Listener
 			// Add them to the list
 			PlayerData data = new PlayerData();
 			this._playerData.put( playerName, data );
+			this._names.add( playerName );
 			player.sendMessage( "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] Starting protection!" );
 			player.sendMessage( "Type '/campfire' for info on PvP Protection" );
 		}
 		
-		// Update the player
+		// Update the player, zones may have changed while they were away
 		this._playerData.get( playerName ).setUpdateTime();
+		this.checkZone( player, player.getLocation() );
+		this.refreshListeners();
+	}
+	
+	/**
+	 * Stop tracking players who leave
+	 * @param e
+	 */
+	@EventHandler( priority = EventPriority.MONITOR )
+	public void onPlayerQuit( PlayerQuitEvent e )
+	{
+		if ( this._countdown != null ) this._countdown.forget( e.getPlayer().getName() );
+		
+		// They are still online until the event is over
+		this.requestRefresh();
+	}
+	
+	/**
+	 * Pause or resume the protection timer when a player moves
+	 * between worlds with different policies
+	 * @param e
+	 */
+	@EventHandler( priority = EventPriority.MONITOR )
+	public void onChangedWorld( PlayerChangedWorldEvent e )
+	{
+		// Alias
+		Player player = e.getPlayer();
+		PlayerData data = this._playerData.get( player.getName() );
+		
+		// Ignore ops and expired players
+		if ( player.isOp() ) return;
+		if ( data == null || !data.isEnabled() ) return;
+		
+		// The zones they were in are in the old world
+		this.checkZone( player, player.getLocation() );
+		
+		// Nothing to do if the policy didn't change
+		WorldPolicy from = this.getPolicy( e.getFrom() );
+		WorldPolicy to = this.getPolicy( player.getWorld() );
+		if ( from == to ) return;
+		
+		if ( to == null )
+		{
+			// Count the time spent up until now, then pause
+			data.update();
+			player.sendMessage( "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] No protection in this world." );
+			player.sendMessage( "Protection timer paused!" );
+		} else if ( from == null ) {
+			// Start counting from now
+			data.setUpdateTime();
+			player.sendMessage( "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] Entering protected world." );
+			player.sendMessage( "Protection timer resumed!" );
+		}
+		this.refreshListeners();
+	}
+	
+	/**
+	 * Resolve the policy of worlds loaded after startup
+	 * @param e
+	 */
+	@EventHandler( priority = EventPriority.MONITOR )
+	public void onWorldLoad( WorldLoadEvent e )
+	{
+		this.loadPolicy( e.getWorld() );
+		this.loadZones( e.getWorld() );
+		this.refreshListeners();
+	}
+	
+	/**
+	 * Drop the policy of unloaded worlds
+	 * @param e
+	 */
+	@EventHandler( priority = EventPriority.MONITOR )
+	public void onWorldUnload( WorldUnloadEvent e )
+	{
+		if ( e.isCancelled() ) return;
+		this._policies.remove( e.getWorld().getUID() );
+		this._zones.remove( e.getWorld().getUID() );
+		this.requestRefresh();
 	}
 	
 	/**
 	 * Prevent the use of lava buckets and flint and steel around protected players
+	 * Called by the protection listener
 	 * @param e
 	 */
-	@EventHandler( priority = EventPriority.HIGH )
 	public void onPlayerInteract( PlayerInteractEvent e )
 	{	
 		// Get player object
@@ -605,6 +1127,10 @@ public class Campfire extends JavaPlugin implements Listener
 		// Ignore ops
 		if ( player.isOp() ) return;
 		
+		// Ignore worlds without protection
+		WorldPolicy policy = this.getPolicy( player.getWorld() );
+		if ( policy == null ) return;
+		
 		// If they are under protection, check if they are trying to use a prohibited item
 		if ( this._playerData.get( player.getName() ).isEnabled() )
 		{
@@ -677,7 +1203,7 @@ public class Campfire extends JavaPlugin implements Listener
 				
 				// Check distance
 				double dist = e.getClickedBlock().getLocation().distance( target.getLocation() );
-				if ( dist <= this._bufferDist )
+				if ( dist <= policy.getBufferDist() )
 				{
 					player.sendMessage( "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] " + ChatColor.RED + "Player is protected!" );
 					e.setCancelled( true );
@@ -698,4 +1224,164 @@ public class Campfire extends JavaPlugin implements Listener
 		if ( this._playerData.containsKey( playerName ) ) return this._playerData.get( playerName );
 		return null;
 	}
+	
+	/**
+	 * Is the player currently under protection?
+	 * @param player
+	 * @return Protected
+	 */
+	public boolean isProtected( Player player )
+	{
+		if ( player.isOp() ) return false;
+		PlayerData data = this._playerData.get( player.getName() );
+		if ( data == null || !data.isEnabled() ) return false;
+		return this.getPolicy( player.getWorld() ) != null;
+	}
+	
+	/**
+	 * Register the hot listeners while they have work to do, unregister them otherwise
+	 * Protection handlers need a protected player online, the zone handler also needs zones
+	 * Must be called from the main thread
+	 */
+	public void refreshListeners()
+	{
+		this._refreshPending = false;
+		boolean anyProtected = false;
+		for ( Player player : this.getServer().getOnlinePlayers() )
+		{
+			if ( this.isProtected( player ) )
+			{
+				anyProtected = true;
+				break;
+			}
+		}
+		this.setRegistered( this._protectionListener, anyProtected );
+		this.setRegistered( this._zoneListener, anyProtected && !this._zones.isEmpty() );
+	}
+	
+	/**
+	 * Refresh the listeners on the main thread on the next tick
+	 * Safe to call from any thread
+	 */
+	public void requestRefresh()
+	{
+		if ( this._refreshPending ) return;
+		this._refreshPending = true;
+		final Campfire plugin = this;
+		this.getServer().getScheduler().scheduleSyncDelayedTask( this, new Runnable() {
+			public void run() { plugin.refreshListeners(); }
+		}, 1L );
+	}
+	
+	/**
+	 * Register or unregister a listener if it isn't already
+	 * @param listener
+	 * @param registered
+	 */
+	private void setRegistered( Listener listener, boolean registered )
+	{
+		if ( registered == this._activeListeners.contains( listener ) ) return;
+		if ( registered )
+		{
+			this.getServer().getPluginManager().registerEvents( listener, this );
+			this._activeListeners.add( listener );
+		} else {
+			HandlerList.unregisterAll( listener );
+			this._activeListeners.remove( listener );
+		}
+	}
+	
+	/**
+	 * Get the protection policy for a world
+	 * @param world
+	 * @return Policy, or null if the world has no protection
+	 */
+	public WorldPolicy getPolicy( World world )
+	{
+		return this._policies.get( world.getUID() );
+	}
+	
+	/**
+	 * Resolve a world's policy from its section under 'Worlds' in the config.yml
+	 * Worlds without a section use the global values
+	 * @param world
+	 */
+	private void loadPolicy( World world )
+	{
+		WorldPolicy policy = this._defaultPolicy;
+		ConfigurationSection section = this.getConfig().getConfigurationSection( "Worlds." + world.getName() );
+		if ( section != null ) policy = WorldPolicy.fromConfig( section, this._defaultPolicy );
+		if ( policy != null ) this._policies.put( world.getUID(), policy );
+		else this._policies.remove( world.getUID() );
+	}
+	
+	/**
+	 * Rebuild the zone index of every loaded world
+	 */
+	private void loadAllZones()
+	{
+		for ( World world : this.getServer().getWorlds() ) this.loadZones( world );
+		
+		// Zones may have appeared or gone from under online players
+		for ( Player player : this.getServer().getOnlinePlayers() ) this.checkZone( player, player.getLocation() );
+	}
+	
+	/**
+	 * Rebuild the zone index of every loaded world and the listeners that depend on it
+	 * WorldGuard regions are copied when the zones are built, so this picks up
+	 * regions that were added, removed or flagged since
+	 */
+	private void reloadZones()
+	{
+		this.loadAllZones();
+		this.refreshListeners();
+	}
+	
+	/**
+	 * Build a world's zone index from the config.yml zones
+	 * and, if its policy allows it, its WorldGuard regions
+	 * @param world
+	 */
+	private void loadZones( World world )
+	{
+		ArrayList<Zone> pvp = new ArrayList<Zone>();
+		ArrayList<Zone> invincible = new ArrayList<Zone>();
+		WorldPolicy policy = this.getPolicy( world );
+		if ( policy != null )
+		{
+			for ( Zone zone : this._configZones )
+			{
+				if ( zone.getWorld().equals( world.getName() ) ) pvp.add( zone );
+			}
+			if ( policy.useWorldGuard() && this._worldguard != null ) this.importWorldGuard( world, pvp, invincible );
+		}
+		
+		// Only index worlds where something can pause the timer
+		boolean pauses = false;
+		for ( Zone zone : pvp ) pauses |= zone.pauses();
+		for ( Zone zone : invincible ) pauses |= zone.pauses();
+		if ( !pauses ) this._zones.remove( world.getUID() );
+		else this._zones.put( world.getUID(), new WorldZones( pvp, invincible ) );
+	}
+	
+	/**
+	 * Add a world's WorldGuard regions that set the PvP or Invincible flag as zones
+	 * Regions that allow PvP are added too, so they can override the regions they overlap
+	 * @param world
+	 * @param pvp List to add PvP regions to
+	 * @param invincible List to add Invincible regions to
+	 */
+	private void importWorldGuard( World world, List<Zone> pvp, List<Zone> invincible )
+	{
+		RegionManager manager = this._worldguard.getRegionManager( world );
+		if ( manager == null ) return;
+		for ( ProtectedRegion region : manager.getRegions().values() )
+		{
+			// Check if it is a NoPvP or Invincible region, flags are inherited from parents
+			StateFlag.State pvpState = RegionZone.getFlag( region, DefaultFlag.PVP );
+			if ( pvpState != null ) pvp.add( RegionZone.fromRegion( region, world.getName(), pvpState == StateFlag.State.DENY, pvpState == StateFlag.State.DENY ) );
+			StateFlag.State invincibleState = RegionZone.getFlag( region, DefaultFlag.INVINCIBILITY );
+			if ( invincibleState != null ) invincible.add( RegionZone.fromRegion( region, world.getName(), invincibleState == StateFlag.State.ALLOW, invincibleState == StateFlag.State.DENY ) );
+		}
+	}
 }
@@ -0,0 +1,170 @@
+package com.psychobit.campfire;
+
+import java.util.HashMap;
+
+import org.bukkit.ChatColor;
+import org.bukkit.entity.Player;
+import org.bukkit.scoreboard.DisplaySlot;
+import org.bukkit.scoreboard.Objective;
+import org.bukkit.scoreboard.Scoreboard;
+
+/**
+ * Shows protected players a live countdown in their sidebar
+ *
+ * Runs every tick, but only refreshes one bucket of the online players
+ * per tick so each player is visited once a second. The scoreboard is
+ * only touched when the number of minutes shown actually changes.
+ *
+ * Every player gets a private board while the countdown is shown, since
+ * the sidebar of a board is seen by everyone on it. The board they had
+ * before, with its own sidebar, is given back when the countdown goes.
+ * @author psychobit
+ *
+ */
+public class CountdownRenderer implements Runnable
+{
+	/**
+	 * Number of buckets players are spread over, one bucket per tick
+	 */
+	private static final int BUCKETS = 20;
+
+	/**
+	 * Name of the sidebar objective
+	 */
+	private static final String OBJECTIVE = "campfire";
+
+	/**
+	 * Label of the countdown entry
+	 */
+	private static final String ENTRY = "Minutes left";
+
+	/**
+	 * Plugin the countdown belongs to
+	 */
+	private final Campfire _plugin;
+
+	/**
+	 * Minutes currently displayed to each player showing the countdown
+	 */
+	private final HashMap<String,Integer> _shown;
+
+	/**
+	 * Private board of each player showing the countdown
+	 */
+	private final HashMap<String,Scoreboard> _boards;
+
+	/**
+	 * Board each player had before we gave them their private one
+	 */
+	private final HashMap<String,Scoreboard> _previous;
+
+	/**
+	 * Bucket refreshed on the next tick
+	 */
+	private int _bucket;
+
+	/**
+	 * Create the renderer
+	 * @param plugin
+	 */
+	public CountdownRenderer( Campfire plugin )
+	{
+		this._plugin = plugin;
+		this._shown = new HashMap<String,Integer>();
+		this._boards = new HashMap<String,Scoreboard>();
+		this._previous = new HashMap<String,Scoreboard>();
+		this._bucket = 0;
+	}
+
+	/**
+	 * Refresh the players in the current bucket
+	 */
+	public void run()
+	{
+		// Bucket by name so joins and quits don't move anyone to another bucket
+		for ( Player player : this._plugin.getServer().getOnlinePlayers() )
+		{
+			if ( ( player.getName().hashCode() & 0x7fffffff ) % BUCKETS == this._bucket ) this.render( player );
+		}
+		this._bucket = ( this._bucket + 1 ) % BUCKETS;
+	}
+
+	/**
+	 * Update a player's countdown if the value shown changed
+	 * @param player
+	 */
+	private void render( Player player )
+	{
+		// Remove the countdown from players who no longer need it
+		String playerName = player.getName();
+		PlayerData data = this._plugin.getPlayerData( playerName );
+		WorldPolicy policy = this._plugin.getPolicy( player.getWorld() );
+		if ( player.isOp() || data == null || !data.isEnabled() || data.countdownHidden() || policy == null )
+		{
+			this.clear( player );
+			return;
+		}
+
+		// Only send an update when the minutes shown change
+		int timeLeft = Math.max( 0, policy.getDuration() - data.getTimeElapsed() );
+		int min = ( timeLeft + 59 ) / 60;
+		Integer shown = this._shown.get( playerName );
+		if ( shown != null && shown.intValue() == min ) return;
+
+		// Create their private board the first time
+		Scoreboard board = this._boards.get( playerName );
+		if ( board == null )
+		{
+			board = this._plugin.getServer().getScoreboardManager().getNewScoreboard();
+			Objective objective = board.registerNewObjective( OBJECTIVE, "dummy" );
+			objective.setDisplayName( ChatColor.GOLD + "PvP Protection" );
+			objective.setDisplaySlot( DisplaySlot.SIDEBAR );
+			this._boards.put( playerName, board );
+		}
+
+		// Put them on it, again if another plugin has set a board since
+		if ( player.getScoreboard() != board )
+		{
+			this._previous.put( playerName, player.getScoreboard() );
+			player.setScoreboard( board );
+		}
+		board.getObjective( OBJECTIVE ).getScore( ENTRY ).setScore( min );
+		this._shown.put( playerName, min );
+	}
+
+	/**
+	 * Remove the countdown from a player if it is shown
+	 * @param player
+	 */
+	public void clear( Player player )
+	{
+		this._shown.remove( player.getName() );
+		Scoreboard board = this._boards.remove( player.getName() );
+		Scoreboard previous = this._previous.remove( player.getName() );
+		if ( board == null ) return;
+
+		// Give back the board they had, unless another plugin has set one since
+		if ( player.getScoreboard() != board ) return;
+		if ( previous == null ) previous = this._plugin.getServer().getScoreboardManager().getMainScoreboard();
+		player.setScoreboard( previous );
+	}
+
+	/**
+	 * Remove the countdown from every online player
+	 */
+	public void clearAll()
+	{
+		for ( Player player : this._plugin.getServer().getOnlinePlayers() ) this.clear( player );
+	}
+
+	/**
+	 * Forget a player who left the server
+	 * @param playerName
+	 */
+	public void forget( String playerName )
+	{
+		this._shown.remove( playerName );
+		this._boards.remove( playerName );
+		this._previous.remove( playerName );
+	}
+}
@@ -0,0 +1,257 @@
+package com.psychobit.campfire;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Sync transport over a directory shared by all servers
+ *
+ * Each publish writes one small file named after the server and a
+ * sequence number. Servers read the files of the others, remember the
+ * last sequence read from each server, and prune their own old files.
+ * Unreadable files are logged and skipped, the next snapshot of their
+ * server covers what they held.
+ * @author psychobit
+ *
+ */
+public class DirectoryTransport implements SyncTransport
+{
+	/**
+	 * Extension of delta files
+	 */
+	private static final String EXTENSION = ".delta";
+
+	/**
+	 * Files are read until a poll has at least this many deltas
+	 */
+	private static final int POLL_SIZE = 1000;
+
+	/**
+	 * Shared directory
+	 */
+	private final File _directory;
+
+	/**
+	 * Id of this server
+	 */
+	private final String _serverId;
+
+	/**
+	 * How long in seconds published files are kept
+	 */
+	private final int _retention;
+
+	/**
+	 * Where the last sequence read from each server is stored
+	 */
+	private final File _cursorFile;
+
+	/**
+	 * Last sequence read from each server
+	 */
+	private final Properties _cursors;
+
+	/**
+	 * Sequence of the last file published
+	 */
+	private long _sequence;
+
+	/**
+	 * Create the transport
+	 * @param directory Shared directory
+	 * @param serverId Id of this server, unique across the network
+	 * @param retention Seconds published files are kept
+	 * @param cursorFile Local file to store read positions in
+	 */
+	public DirectoryTransport( File directory, String serverId, int retention, File cursorFile )
+	{
+		this._directory = directory;
+		this._serverId = serverId;
+		this._retention = retention;
+		this._cursorFile = cursorFile;
+		this._cursors = new Properties();
+		this._directory.mkdirs();
+
+		// Sequences keep increasing across restarts
+		this._sequence = System.currentTimeMillis() * 1000;
+
+		// Load where we left off
+		try {
+			FileInputStream in = new FileInputStream( this._cursorFile );
+			this._cursors.load( in );
+			in.close();
+		} catch ( FileNotFoundException e ) { // First run
+		} catch ( IOException e ) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Write the deltas to a new file and prune our old files
+	 * @param deltas
+	 */
+	public void publish( List<ProtectionDelta> deltas ) throws IOException
+	{
+		if ( deltas.isEmpty() ) return;
+
+		// Sequences follow the clock so pruning by sequence prunes by age
+		this._sequence = Math.max( this._sequence + 1, System.currentTimeMillis() * 1000 );
+
+		// Write to a temporary file first so readers never see a partial file
+		String name = this._serverId + "." + this._sequence + EXTENSION;
+		File tmp = new File( this._directory, name + ".tmp" );
+		DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ) );
+		try {
+			out.writeInt( deltas.size() );
+			for ( ProtectionDelta delta : deltas ) delta.write( out );
+		} finally {
+			out.close();
+		}
+		if ( !tmp.renameTo( new File( this._directory, name ) ) ) throw new IOException( "Could not publish " + name );
+
+		// Prune files older than the retention period, never the one just written
+		long oldest = Math.min( ( System.currentTimeMillis() - this._retention * 1000L ) * 1000, this._sequence );
+		File[] files = this._directory.listFiles();
+		if ( files == null ) return;
+		for ( File file : files )
+		{
+			String origin = this.getOrigin( file.getName() );
+			if ( origin == null || !origin.equals( this._serverId ) ) continue;
+			if ( this.getSequence( file.getName() ) < oldest ) file.delete();
+		}
+	}
+
+	/**
+	 * Read the next files other servers published since the last poll
+	 * Stops once enough deltas were read, the rest are left for the next poll
+	 * @return Deltas, empty if every file was read
+	 */
+	public List<ProtectionDelta> poll() throws IOException
+	{
+		// Find unread files from other servers
+		ArrayList<File> unread = new ArrayList<File>();
+		File[] files = this._directory.listFiles();
+		if ( files == null ) return new ArrayList<ProtectionDelta>();
+		for ( File file : files )
+		{
+			String origin = this.getOrigin( file.getName() );
+			if ( origin == null || origin.equals( this._serverId ) ) continue;
+			long cursor = Long.parseLong( this._cursors.getProperty( origin, "0" ) );
+			if ( this.getSequence( file.getName() ) > cursor ) unread.add( file );
+		}
+
+		// Read them oldest first
+		final DirectoryTransport transport = this;
+		File[] sorted = unread.toArray( new File[ unread.size() ] );
+		Arrays.sort( sorted, new Comparator<File>() {
+			public int compare( File a, File b )
+			{
+				long diff = transport.getSequence( a.getName() ) - transport.getSequence( b.getName() );
+				return diff < 0 ? -1 : ( diff > 0 ? 1 : 0 );
+			}
+		});
+		ArrayList<ProtectionDelta> deltas = new ArrayList<ProtectionDelta>();
+		int read = 0;
+		for ( File file : sorted )
+		{
+			if ( deltas.size() >= POLL_SIZE ) break;
+			this.read( file, deltas );
+			this._cursors.setProperty( this.getOrigin( file.getName() ), Long.toString( this.getSequence( file.getName() ) ) );
+			read++;
+		}
+
+		// Remember where we left off, the deltas are returned even if that fails
+		if ( read > 0 )
+		{
+			try {
+				FileOutputStream out = new FileOutputStream( this._cursorFile );
+				try {
+					this._cursors.store( out, "Campfire sync positions" );
+				} finally {
+					out.close();
+				}
+			} catch ( IOException e ) {
+				System.out.println( "[Campfire] Could not save sync positions!" );
+				e.printStackTrace();
+			}
+		}
+		return deltas;
+	}
+
+	/**
+	 * Read the deltas of a file
+	 * Nothing is added if the file is gone or can't be read
+	 * @param file
+	 * @param deltas List to add them to
+	 */
+	private void read( File file, List<ProtectionDelta> deltas )
+	{
+		DataInputStream in;
+		try {
+			in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+		} catch ( FileNotFoundException e ) {
+			return; // Pruned by its owner before we got to it
+		}
+		ArrayList<ProtectionDelta> read = new ArrayList<ProtectionDelta>();
+		try {
+			try {
+				int count = in.readInt();
+				for ( int i = 0; i < count; i++ ) read.add( ProtectionDelta.read( in ) );
+			} finally {
+				in.close();
+			}
+		} catch ( IOException e ) {
+			System.out.println( "[Campfire] Skipping unreadable sync file " + file.getName() + "!" );
+			e.printStackTrace();
+			return;
+		}
+		deltas.addAll( read );
+	}
+
+	/**
+	 * Nothing is held open between calls
+	 */
+	public void close()
+	{
+	}
+
+	/**
+	 * Get the server a delta file came from
+	 * @param name File name
+	 * @return Server id, or null if it's not a delta file
+	 */
+	private String getOrigin( String name )
+	{
+		if ( !name.endsWith( EXTENSION ) ) return null;
+		int dot = name.lastIndexOf( '.', name.length() - EXTENSION.length() - 1 );
+		if ( dot <= 0 ) return null;
+		return name.substring( 0, dot );
+	}
+
+	/**
+	 * Get the sequence number of a delta file
+	 * @param name File name
+	 * @return Sequence
+	 */
+	private long getSequence( String name )
+	{
+		int end = name.length() - EXTENSION.length();
+		try {
+			return Long.parseLong( name.substring( name.lastIndexOf( '.', end - 1 ) + 1, end ) );
+		} catch ( NumberFormatException e ) {
+			return -1;
+		}
+	}
+}
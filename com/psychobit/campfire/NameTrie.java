@@ -0,0 +1,164 @@
+package com.psychobit.campfire;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Case insensitive prefix trie of known player names
+ *
+ * Children are kept in small sorted arrays rather than maps, so a name
+ * costs little more than its characters and a lookup is a binary search
+ * per character.
+ * @author psychobit
+ *
+ */
+public class NameTrie
+{
+	/**
+	 * A node of the trie
+	 */
+	private static class Node
+	{
+		/**
+		 * Characters leading to each child, sorted
+		 */
+		private char[] _keys = new char[ 0 ];
+
+		/**
+		 * Children, in the same order as the keys
+		 */
+		private Node[] _children = new Node[ 0 ];
+
+		/**
+		 * Name ending at this node with its original case, if any
+		 */
+		private String _name;
+	}
+
+	/**
+	 * Root of the trie
+	 */
+	private final Node _root = new Node();
+
+	/**
+	 * Number of names stored
+	 */
+	private int _size;
+
+	/**
+	 * Add a name
+	 * @param name
+	 */
+	public synchronized void add( String name )
+	{
+		String key = name.toLowerCase();
+		Node node = this._root;
+		for ( int i = 0; i < key.length(); i++ ) node = this.getChild( node, key.charAt( i ), true );
+		if ( node._name == null ) this._size++;
+		node._name = name;
+	}
+
+	/**
+	 * Find a name regardless of case
+	 * @param name
+	 * @return Name as stored, or null if unknown
+	 */
+	public synchronized String find( String name )
+	{
+		Node node = this.walk( name.toLowerCase() );
+		return ( node == null ? null : node._name );
+	}
+
+	/**
+	 * Find a name by its exact name or by a prefix only it starts with
+	 * @param prefix
+	 * @return Name as stored, or null if unknown or ambiguous
+	 */
+	public synchronized String match( String prefix )
+	{
+		Node node = this.walk( prefix.toLowerCase() );
+		if ( node == null ) return null;
+		if ( node._name != null ) return node._name;
+		List<String> names = new ArrayList<String>();
+		this.collect( node, names, 2 );
+		return ( names.size() == 1 ? names.get( 0 ) : null );
+	}
+
+	/**
+	 * Get the names starting with a prefix, in alphabetical order
+	 * @param prefix
+	 * @param limit Maximum number of names to return
+	 * @return Names
+	 */
+	public synchronized List<String> complete( String prefix, int limit )
+	{
+		List<String> names = new ArrayList<String>();
+		Node node = this.walk( prefix.toLowerCase() );
+		if ( node != null ) this.collect( node, names, limit );
+		return names;
+	}
+
+	/**
+	 * Get the number of names stored
+	 * @return Name count
+	 */
+	public synchronized int size()
+	{
+		return this._size;
+	}
+
+	/**
+	 * Follow a key down from the root
+	 * @param key Lower case key
+	 * @return Node at the end of the key, or null if there is none
+	 */
+	private Node walk( String key )
+	{
+		Node node = this._root;
+		for ( int i = 0; i < key.length() && node != null; i++ ) node = this.getChild( node, key.charAt( i ), false );
+		return node;
+	}
+
+	/**
+	 * Add the names under a node until the limit is reached
+	 * @param node
+	 * @param names
+	 * @param limit
+	 */
+	private void collect( Node node, List<String> names, int limit )
+	{
+		if ( names.size() >= limit ) return;
+		if ( node._name != null ) names.add( node._name );
+		for ( Node child : node._children ) this.collect( child, names, limit );
+	}
+
+	/**
+	 * Get a node's child for a character
+	 * @param node
+	 * @param c
+	 * @param create Add the child if it doesn't exist
+	 * @return Child, or null if it doesn't exist and wasn't created
+	 */
+	private Node getChild( Node node, char c, boolean create )
+	{
+		int pos = Arrays.binarySearch( node._keys, c );
+		if ( pos >= 0 ) return node._children[ pos ];
+		if ( !create ) return null;
+
+		// Insert it in order
+		pos = -pos - 1;
+		int length = node._keys.length;
+		char[] keys = new char[ length + 1 ];
+		Node[] children = new Node[ length + 1 ];
+		System.arraycopy( node._keys, 0, keys, 0, pos );
+		System.arraycopy( node._children, 0, children, 0, pos );
+		System.arraycopy( node._keys, pos, keys, pos + 1, length - pos );
+		System.arraycopy( node._children, pos, children, pos + 1, length - pos );
+		keys[ pos ] = c;
+		children[ pos ] = new Node();
+		node._keys = keys;
+		node._children = children;
+		return children[ pos ];
+	}
+}
@@ -1,6 +1,10 @@
 package com.psychobit.campfire;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Holds data about players' campfire time
@@ -39,6 +43,28 @@ public class PlayerData implements Serializable
 	 */
 	private boolean _confirm;
 	
+	/**
+	 * Whether or not the player has hidden the countdown display
+	 */
+	private boolean _countdownHidden;
+	
+	/**
+	 * Number of times the player's protection has been reset
+	 * Deltas from an older epoch are ignored when syncing
+	 */
+	private int _epoch;
+	
+	/**
+	 * Time counted by each other server in this epoch, null if none has
+	 * Time counted on this server is whatever elapsed time is left over
+	 */
+	private HashMap<String,Integer> _remote;
+	
+	/**
+	 * Whether or not there are changes to sync
+	 */
+	private transient boolean _dirty;
+	
 	/**
 	 * Set the last updated time 
 	 */
@@ -87,9 +113,11 @@ public class PlayerData implements Serializable
 	 * Set whether campfire is enabled or disabled for this player 
 	 * @param enabled
 	 */
-	public void setEnabled( boolean enabled )
+	public synchronized void setEnabled( boolean enabled )
 	{
+		if ( this._disabled == !enabled ) return;
 		this._disabled = !enabled;
+		this._dirty = true;
 	}
 	
 	/**
@@ -105,7 +133,7 @@ public class PlayerData implements Serializable
 	/**
 	 * Update the player's elapsed time
 	 */
-	public void update()
+	public synchronized void update()
 	{
 		if ( this._disabled ) return;
 		if ( this._inProtectedZone ) return;
@@ -113,12 +141,13 @@ public class PlayerData implements Serializable
 		int inc = ( int ) ( currentTime - this._lastUpdated );
 		this._timeElapsed += inc;
 		this._lastUpdated = ( System.currentTimeMillis() / 1000 );
+		if ( inc != 0 ) this._dirty = true;
 	}
 	
 	/**
 	 * Reset the player
 	 */
-	public void reset()
+	public synchronized void reset()
 	{
 		this._timeElapsed = 0;
 		this._disabled = false;
@@ -126,6 +155,145 @@ public class PlayerData implements Serializable
 		this._confirm = false;
 		this.setEnabled( true );
 		this.setUpdateTime();
+		this._epoch++;
+		this._remote = null;
+		this._dirty = true;
+	}
+	
+	/**
+	 * Get the number of times the player has been reset
+	 * @return Reset epoch
+	 */
+	public int getEpoch()
+	{
+		return this._epoch;
+	}
+	
+	/**
+	 * Overwrite the player's protection with imported values
+	 * Starts a new epoch holding the imported time as counted on this
+	 * server, so other servers drop what they had and end up with the
+	 * same values. Nothing changes if we already hold the same values, so
+	 * restoring a backup twice doesn't publish every player again.
+	 * @param timeElapsed
+	 * @param enabled
+	 * @param epoch Epoch of the imported record
+	 */
+	public synchronized void restore( int timeElapsed, boolean enabled, int epoch )
+	{
+		if ( epoch <= this._epoch && timeElapsed == this._timeElapsed && enabled == !this._disabled ) return;
+		this._timeElapsed = timeElapsed;
+		this._disabled = !enabled;
+		this._epoch = Math.max( this._epoch, epoch ) + 1;
+		this._confirm = false;
+		this._remote = null;
+		this._dirty = true;
+		this.setUpdateTime();
+	}
+	
+	/**
+	 * Take the player's state if it changed since the last sync
+	 * @param playerName
+	 * @param serverId Id of this server
+	 * @param all Take it even if nothing changed
+	 * @return Delta, or null if there is nothing to send
+	 */
+	public synchronized ProtectionDelta drainDelta( String playerName, String serverId, boolean all )
+	{
+		if ( !this._dirty && ( !all || ( this._epoch == 0 && this._timeElapsed == 0 && !this._disabled ) ) ) return null;
+		this._dirty = false;
+		
+		// Send what every server counted, ours being what the others didn't
+		int count = ( this._remote == null ? 0 : this._remote.size() );
+		String[] origins = new String[ count + 1 ];
+		int[] elapsed = new int[ count + 1 ];
+		int i = 0;
+		if ( this._remote != null )
+		{
+			for ( Map.Entry<String,Integer> entry : this._remote.entrySet() )
+			{
+				origins[i] = entry.getKey();
+				elapsed[i++] = entry.getValue();
+			}
+		}
+		origins[i] = serverId;
+		elapsed[i] = this.getLocalElapsed();
+		return new ProtectionDelta( playerName, this._epoch, !this._disabled, origins, elapsed );
+	}
+	
+	/**
+	 * Send the player's state again on the next sync
+	 */
+	public synchronized void markDirty()
+	{
+		this._dirty = true;
+	}
+	
+	/**
+	 * Merge a delta from another server
+	 * A newer epoch means the player was reset elsewhere, so our time in
+	 * the old epoch is dropped. Within an epoch each server's total only
+	 * grows, so taking the larger one is safe to repeat and every server
+	 * ends up with the same state whatever order deltas arrive in.
+	 * @param delta
+	 * @param serverId Id of this server
+	 */
+	public synchronized void applyDelta( ProtectionDelta delta, String serverId )
+	{
+		// Ignore changes made before our last reset
+		if ( delta.getEpoch() < this._epoch ) return;
+		
+		// Catch up with a reset made elsewhere
+		if ( delta.getEpoch() > this._epoch )
+		{
+			this._epoch = delta.getEpoch();
+			this._timeElapsed = 0;
+			this._remote = null;
+			this._disabled = false;
+			this._confirm = false;
+		}
+		
+		// Share the time budget, expiry is permanent within an epoch
+		for ( int i = 0; i < delta.getOriginCount(); i++ )
+		{
+			int elapsed = delta.getElapsed( i );
+			if ( delta.getOrigin( i ).equals( serverId ) )
+			{
+				// Our own time coming back, after we lost some of it
+				int local = this.getLocalElapsed();
+				if ( elapsed > local ) this._timeElapsed += elapsed - local;
+				continue;
+			}
+			if ( this._remote == null ) this._remote = new HashMap<String,Integer>();
+			Integer known = this._remote.get( delta.getOrigin( i ) );
+			if ( known != null && known.intValue() >= elapsed ) continue;
+			this._timeElapsed += elapsed - ( known == null ? 0 : known.intValue() );
+			this._remote.put( delta.getOrigin( i ), elapsed );
+		}
+		if ( !delta.isEnabled() ) this._disabled = true;
+	}
+	
+	/**
+	 * Get the time counted on this server in this epoch
+	 * Includes time counted before sync was turned on
+	 * @return Elapsed seconds
+	 */
+	private int getLocalElapsed()
+	{
+		int local = this._timeElapsed;
+		if ( this._remote == null ) return local;
+		for ( Integer elapsed : this._remote.values() ) local -= elapsed.intValue();
+		return local;
+	}
+	
+	/**
+	 * Save the player while holding the lock, the sync may be changing them
+	 * @param out
+	 * @throws IOException
+	 */
+	private synchronized void writeObject( ObjectOutputStream out ) throws IOException
+	{
+		out.defaultWriteObject();
 	}
 	
 	/**
@@ -144,4 +312,22 @@ public class PlayerData implements Serializable
 	{
 		return this._confirm;
 	}
+	
+	/**
+	 * Has the player hidden the countdown display?
+	 * @return Countdown hidden
+	 */
+	public boolean countdownHidden()
+	{
+		return this._countdownHidden;
+	}
+	
+	/**
+	 * Set whether the countdown display is hidden for this player
+	 * @param hidden
+	 */
+	public void setCountdownHidden( boolean hidden )
+	{
+		this._countdownHidden = hidden;
+	}
 }
\ No newline at end of file
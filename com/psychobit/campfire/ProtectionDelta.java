@@ -0,0 +1,158 @@
+package com.psychobit.campfire;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A player's protection as one server last saw it
+ *
+ * Elapsed time is kept per server that counted it, as running totals for
+ * the epoch. Deltas merge the same way in any order and any number of
+ * times: the highest reset epoch wins, each server's total is merged by
+ * taking the larger one, the totals are summed and a disabled flag is
+ * sticky. A server that missed some deltas catches up from any later one.
+ * @author psychobit
+ *
+ */
+public class ProtectionDelta
+{
+	/**
+	 * Name of the player
+	 */
+	private final String _playerName;
+
+	/**
+	 * Number of times the player's protection has been reset
+	 */
+	private final int _epoch;
+
+	/**
+	 * Whether or not protection is still enabled
+	 */
+	private final boolean _enabled;
+
+	/**
+	 * Ids of the servers that counted time in this epoch
+	 */
+	private final String[] _origins;
+
+	/**
+	 * Time each of those servers counted in this epoch
+	 */
+	private final int[] _elapsed;
+
+	/**
+	 * Create a delta
+	 * @param playerName
+	 * @param epoch Reset epoch
+	 * @param enabled Protection enabled
+	 * @param origins Server ids
+	 * @param elapsed Elapsed seconds counted by each server
+	 */
+	public ProtectionDelta( String playerName, int epoch, boolean enabled, String[] origins, int[] elapsed )
+	{
+		this._playerName = playerName;
+		this._epoch = epoch;
+		this._enabled = enabled;
+		this._origins = origins;
+		this._elapsed = elapsed;
+	}
+
+	/**
+	 * Read a delta
+	 * @param in
+	 * @return Delta
+	 * @throws IOException
+	 */
+	public static ProtectionDelta read( DataInput in ) throws IOException
+	{
+		String playerName = in.readUTF();
+		int epoch = in.readInt();
+		boolean enabled = in.readBoolean();
+		int count = in.readInt();
+		if ( count < 0 || count > Short.MAX_VALUE ) throw new IOException( "Invalid server count " + count );
+		String[] origins = new String[ count ];
+		int[] elapsed = new int[ count ];
+		for ( int i = 0; i < count; i++ )
+		{
+			origins[i] = in.readUTF();
+			elapsed[i] = in.readInt();
+		}
+		return new ProtectionDelta( playerName, epoch, enabled, origins, elapsed );
+	}
+
+	/**
+	 * Write the delta
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write( DataOutput out ) throws IOException
+	{
+		out.writeUTF( this._playerName );
+		out.writeInt( this._epoch );
+		out.writeBoolean( this._enabled );
+		out.writeInt( this._origins.length );
+		for ( int i = 0; i < this._origins.length; i++ )
+		{
+			out.writeUTF( this._origins[i] );
+			out.writeInt( this._elapsed[i] );
+		}
+	}
+
+	/**
+	 * Get the player's name
+	 * @return Player name
+	 */
+	public String getPlayerName()
+	{
+		return this._playerName;
+	}
+
+	/**
+	 * Get the reset epoch
+	 * @return Epoch
+	 */
+	public int getEpoch()
+	{
+		return this._epoch;
+	}
+
+	/**
+	 * Is protection still enabled?
+	 * @return Protection enabled
+	 */
+	public boolean isEnabled()
+	{
+		return this._enabled;
+	}
+
+	/**
+	 * Get the number of servers that counted time
+	 * @return Server count
+	 */
+	public int getOriginCount()
+	{
+		return this._origins.length;
+	}
+
+	/**
+	 * Get the id of a server that counted time
+	 * @param i
+	 * @return Server id
+	 */
+	public String getOrigin( int i )
+	{
+		return this._origins[i];
+	}
+
+	/**
+	 * Get the time a server counted in this epoch
+	 * @param i
+	 * @return Elapsed seconds
+	 */
+	public int getElapsed( int i )
+	{
+		return this._elapsed[i];
+	}
+}
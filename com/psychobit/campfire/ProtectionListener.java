@@ -0,0 +1,61 @@
+package com.psychobit.campfire;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntityDamageEvent;
+import org.bukkit.event.entity.PotionSplashEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+
+/**
+ * Handlers that only matter while a protected player is online
+ * Registered and unregistered by the plugin as that changes
+ * @author psychobit
+ *
+ */
+public class ProtectionListener implements Listener
+{
+	/**
+	 * Plugin doing the actual work
+	 */
+	private final Campfire _plugin;
+
+	/**
+	 * Create the listener
+	 * @param plugin
+	 */
+	public ProtectionListener( Campfire plugin )
+	{
+		this._plugin = plugin;
+	}
+
+	/**
+	 * Prevent PvP damage for protected players
+	 * @param e
+	 */
+	@EventHandler( priority = EventPriority.HIGH )
+	public void onEntityDamage( EntityDamageEvent e )
+	{
+		this._plugin.onEntityDamage( e );
+	}
+
+	/**
+	 * Keep harmful splash potions away from protected players
+	 * @param e
+	 */
+	@EventHandler( priority = EventPriority.HIGH )
+	public void onPotionSplash( PotionSplashEvent e )
+	{
+		this._plugin.onPotionSplash( e );
+	}
+
+	/**
+	 * Prevent the use of dangerous items by and around protected players
+	 * @param e
+	 */
+	@EventHandler( priority = EventPriority.HIGH )
+	public void onPlayerInteract( PlayerInteractEvent e )
+	{
+		this._plugin.onPlayerInteract( e );
+	}
+}
@@ -0,0 +1,152 @@
+package com.psychobit.campfire;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shares protection time between servers
+ *
+ * Runs off the main thread. Each run publishes the players that changed
+ * locally since the last run and merges what the other servers published.
+ * Every player is published again on the first run and then every so
+ * often, so servers that joined late or missed pruned files catch up.
+ * @author psychobit
+ *
+ */
+public class ProtectionSync implements Runnable
+{
+	/**
+	 * Most deltas published in a single batch
+	 */
+	private static final int BATCH_SIZE = 1000;
+
+	/**
+	 * Player data shared with the plugin
+	 */
+	private final ConcurrentMap<String,PlayerData> _playerData;
+
+	/**
+	 * Names of every known player
+	 */
+	private final NameTrie _names;
+
+	/**
+	 * Transport to the other servers
+	 */
+	private final SyncTransport _transport;
+
+	/**
+	 * Id of this server
+	 */
+	private final String _serverId;
+
+	/**
+	 * Seconds between publishing every player
+	 */
+	private final int _snapshotInterval;
+
+	/**
+	 * Time every player was last published, 0 if never
+	 */
+	private long _lastSnapshot;
+
+	/**
+	 * Create the sync
+	 * @param playerData
+	 * @param names
+	 * @param transport
+	 * @param serverId Id of this server, unique across the network
+	 * @param snapshotInterval Seconds between publishing every player
+	 */
+	public ProtectionSync( ConcurrentMap<String,PlayerData> playerData, NameTrie names, SyncTransport transport, String serverId, int snapshotInterval )
+	{
+		this._playerData = playerData;
+		this._names = names;
+		this._transport = transport;
+		this._serverId = serverId;
+		this._snapshotInterval = snapshotInterval;
+		this._lastSnapshot = 0;
+	}
+
+	/**
+	 * Exchange deltas with the other servers
+	 */
+	public synchronized void run()
+	{
+		// Publish every player now and then, only the changed ones otherwise
+		long now = System.currentTimeMillis() / 1000;
+		boolean all = ( now - this._lastSnapshot >= this._snapshotInterval );
+
+		// Send local changes in batches, stopping at the first failure
+		ArrayList<ProtectionDelta> batch = new ArrayList<ProtectionDelta>();
+		boolean published = true;
+		for ( Map.Entry<String,PlayerData> entry : this._playerData.entrySet() )
+		{
+			ProtectionDelta delta = entry.getValue().drainDelta( entry.getKey(), this._serverId, all );
+			if ( delta == null ) continue;
+			batch.add( delta );
+			if ( batch.size() < BATCH_SIZE ) continue;
+			published = this.publish( batch );
+			if ( !published ) break;
+		}
+		if ( published ) published = this.publish( batch );
+		if ( all && published ) this._lastSnapshot = now;
+
+		// Merge changes from the other servers, one poll at a time
+		try {
+			List<ProtectionDelta> deltas;
+			while ( !( deltas = this._transport.poll() ).isEmpty() )
+			{
+				for ( ProtectionDelta delta : deltas )
+				{
+					PlayerData data = this._playerData.get( delta.getPlayerName() );
+					if ( data == null )
+					{
+						// First seen on another server
+						data = new PlayerData();
+						data.setUpdateTime();
+						PlayerData existing = this._playerData.putIfAbsent( delta.getPlayerName(), data );
+						if ( existing != null ) data = existing;
+						else this._names.add( delta.getPlayerName() );
+					}
+					data.applyDelta( delta, this._serverId );
+				}
+			}
+		} catch ( Exception e ) {
+			System.out.println( "[Campfire] Could not read protection changes!" );
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Publish a batch of deltas and empty it
+	 * Players that could not be sent are sent again next time
+	 * @param batch
+	 * @return Published
+	 */
+	private boolean publish( ArrayList<ProtectionDelta> batch )
+	{
+		try {
+			this._transport.publish( batch );
+			return true;
+		} catch ( Exception e ) {
+			System.out.println( "[Campfire] Could not publish protection changes!" );
+			e.printStackTrace();
+			for ( ProtectionDelta delta : batch ) this._playerData.get( delta.getPlayerName() ).markDirty();
+			return false;
+		} finally {
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Publish any remaining changes and close the transport
+	 */
+	public void close()
+	{
+		this.run();
+		this._transport.close();
+	}
+}
@@ -0,0 +1,222 @@
+package com.psychobit.campfire;
+
+import java.util.List;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldguard.protection.flags.StateFlag;
+import com.sk89q.worldguard.protection.regions.GlobalProtectedRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedPolygonalRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+/**
+ * A WorldGuard region imported as a zone
+ *
+ * Indexed by its bounding box, but polygons are checked against a copy
+ * of their points, the same way WorldGuard does without allocating.
+ * Keeps the region's priority and parents so overlapping regions
+ * resolve like they do in WorldGuard.
+ * @author psychobit
+ *
+ */
+public class RegionZone extends Zone
+{
+	/**
+	 * Region to check points against, null if the bounding box or the polygon is exact
+	 */
+	private final ProtectedRegion _region;
+
+	/**
+	 * Points of a polygon region, null for other shapes
+	 */
+	private final int[] _xs, _zs;
+
+	/**
+	 * Priority of the region
+	 */
+	private final int _priority;
+
+	/**
+	 * Number of parents of the region
+	 */
+	private final int _depth;
+
+	/**
+	 * Whether or not the region pauses the timer
+	 */
+	private final boolean _pauses;
+
+	/**
+	 * Whether or not the region's flag is set to deny
+	 */
+	private final boolean _denies;
+
+	/**
+	 * Create a region zone
+	 * @param region
+	 * @param world
+	 * @param pauses
+	 * @param denies
+	 * @param exact Bounding box is the region's exact shape
+	 * @param priority
+	 * @param bounds Min X, Y, Z then max X, Y, Z
+	 */
+	private RegionZone( ProtectedRegion region, String world, boolean pauses, boolean denies, boolean exact, int priority, double[] bounds )
+	{
+		super( region.getId(), world, Shape.BOX, bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5] );
+		this._priority = priority;
+		this._pauses = pauses;
+		this._denies = denies;
+		if ( region instanceof ProtectedPolygonalRegion )
+		{
+			List<BlockVector2D> points = ( ( ProtectedPolygonalRegion ) region ).getPoints();
+			this._xs = new int[ points.size() ];
+			this._zs = new int[ points.size() ];
+			for ( int i = 0; i < points.size(); i++ )
+			{
+				this._xs[i] = points.get( i ).getBlockX();
+				this._zs[i] = points.get( i ).getBlockZ();
+			}
+			this._region = null;
+		} else {
+			this._xs = this._zs = null;
+			this._region = ( exact ? null : region );
+		}
+		int depth = 0;
+		for ( ProtectedRegion parent = region.getParent(); parent != null; parent = parent.getParent() ) depth++;
+		this._depth = depth;
+	}
+
+	/**
+	 * Create a zone for a region
+	 * The global region covers the whole world below every other region
+	 * @param region
+	 * @param world
+	 * @param pauses Whether or not the region pauses the timer
+	 * @param denies Whether or not the region's flag is set to deny
+	 * @return Zone
+	 */
+	public static RegionZone fromRegion( ProtectedRegion region, String world, boolean pauses, boolean denies )
+	{
+		if ( region instanceof GlobalProtectedRegion )
+		{
+			double[] everywhere = { -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+			return new RegionZone( region, world, pauses, denies, true, Integer.MIN_VALUE, everywhere );
+		}
+
+		// Cover the whole of the last block
+		BlockVector min = region.getMinimumPoint();
+		BlockVector max = region.getMaximumPoint();
+		double[] bounds = { min.getX(), min.getY(), min.getZ(), max.getX() + 1, max.getY() + 1, max.getZ() + 1 };
+		return new RegionZone( region, world, pauses, denies, region instanceof ProtectedCuboidRegion, region.getPriority(), bounds );
+	}
+
+	/**
+	 * Get a flag set on a region or inherited from its parents
+	 * @param region
+	 * @param flag
+	 * @return Flag value, or null if it isn't set
+	 */
+	public static StateFlag.State getFlag( ProtectedRegion region, StateFlag flag )
+	{
+		for ( ProtectedRegion r = region; r != null; r = r.getParent() )
+		{
+			StateFlag.State state = r.getFlag( flag );
+			if ( state != null ) return state;
+		}
+		return null;
+	}
+
+	/**
+	 * Is the point inside the region?
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return Inside
+	 */
+	public boolean contains( double x, double y, double z )
+	{
+		if ( !super.contains( x, y, z ) ) return false;
+		if ( this._xs != null ) return y < this.getMaxY() && this.polygonContains( ( int ) Math.floor( x ), ( int ) Math.floor( z ) );
+		if ( this._region == null ) return true;
+		return this._region.contains( ( int ) Math.floor( x ), ( int ) Math.floor( y ), ( int ) Math.floor( z ) );
+	}
+
+	/**
+	 * Is the block column inside the polygon?
+	 * Same test as WorldGuard's, blocks on an edge or corner are inside
+	 * @param x
+	 * @param z
+	 * @return Inside
+	 */
+	private boolean polygonContains( int x, int z )
+	{
+		boolean inside = false;
+		int n = this._xs.length;
+		int xOld = this._xs[ n - 1 ];
+		int zOld = this._zs[ n - 1 ];
+		for ( int i = 0; i < n; i++ )
+		{
+			int xNew = this._xs[i];
+			int zNew = this._zs[i];
+			if ( xNew == x && zNew == z ) return true;
+			int x1, z1, x2, z2;
+			if ( xNew > xOld )
+			{
+				x1 = xOld; z1 = zOld; x2 = xNew; z2 = zNew;
+			} else {
+				x1 = xNew; z1 = zNew; x2 = xOld; z2 = zOld;
+			}
+			if ( x1 <= x && x <= x2 )
+			{
+				long cross = ( ( long ) z - z1 ) * ( x2 - x1 ) - ( ( long ) z2 - z1 ) * ( x - x1 );
+				if ( cross == 0 )
+				{
+					if ( ( z1 <= z ) == ( z <= z2 ) ) return true;
+				} else if ( cross < 0 && x1 != x ) {
+					inside = !inside;
+				}
+			}
+			xOld = xNew;
+			zOld = zNew;
+		}
+		return inside;
+	}
+
+	/**
+	 * Get the region's priority
+	 * @return Priority
+	 */
+	public int getPriority()
+	{
+		return this._priority;
+	}
+
+	/**
+	 * Get the number of parents of the region
+	 * @return Depth
+	 */
+	public int getDepth()
+	{
+		return this._depth;
+	}
+
+	/**
+	 * Does the region pause the timer?
+	 * @return Pauses
+	 */
+	public boolean pauses()
+	{
+		return this._pauses;
+	}
+
+	/**
+	 * Is the region's flag set to deny?
+	 * @return Denies
+	 */
+	public boolean denies()
+	{
+		return this._denies;
+	}
+}
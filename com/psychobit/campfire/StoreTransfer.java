@@ -0,0 +1,211 @@
+package com.psychobit.campfire;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+
+/**
+ * Exports or imports the player data as a gzipped file with one
+ * tab separated line per player
+ *
+ * Runs off the main thread and streams records one at a time, so memory
+ * use doesn't grow with the number of players. Progress is reported to
+ * whoever started it after every batch.
+ * @author psychobit
+ *
+ */
+public class StoreTransfer implements Runnable
+{
+	/**
+	 * First line of every file, naming the columns
+	 */
+	private static final String HEADER = "#name\telapsed\tenabled\tepoch";
+
+	/**
+	 * Records between progress reports
+	 */
+	private static final int BATCH_SIZE = 10000;
+
+	/**
+	 * Plugin the data belongs to
+	 */
+	private final Campfire _plugin;
+
+	/**
+	 * Player data
+	 */
+	private final ConcurrentMap<String,PlayerData> _playerData;
+
+	/**
+	 * Names of every known player, updated on import
+	 */
+	private final NameTrie _names;
+
+	/**
+	 * File to write or read
+	 */
+	private final File _file;
+
+	/**
+	 * Export if true, import otherwise
+	 */
+	private final boolean _export;
+
+	/**
+	 * Who to report progress to
+	 */
+	private final CommandSender _sender;
+
+	/**
+	 * Cleared when the transfer is done
+	 */
+	private final AtomicBoolean _running;
+
+	/**
+	 * Create a transfer
+	 * @param plugin
+	 * @param playerData
+	 * @param names
+	 * @param file
+	 * @param export Export if true, import otherwise
+	 * @param sender Who to report progress to
+	 * @param running Flag to clear when done
+	 */
+	public StoreTransfer( Campfire plugin, ConcurrentMap<String,PlayerData> playerData, NameTrie names, File file, boolean export, CommandSender sender, AtomicBoolean running )
+	{
+		this._plugin = plugin;
+		this._playerData = playerData;
+		this._names = names;
+		this._file = file;
+		this._export = export;
+		this._sender = sender;
+		this._running = running;
+	}
+
+	/**
+	 * Run the transfer
+	 */
+	public void run()
+	{
+		try {
+			int count = ( this._export ? this.exportData() : this.importData() );
+			this.report( ( this._export ? "Exported " + count + " players to " : "Imported " + count + " players from " ) + this._file.getName() + "!" );
+		} catch ( Exception e ) {
+			e.printStackTrace();
+			this.report( ChatColor.RED + ( this._export ? "Export" : "Import" ) + " failed: " + e.getMessage() );
+		} finally {
+			this._running.set( false );
+		}
+	}
+
+	/**
+	 * Write every record to the file
+	 * @return Number of records written
+	 * @throws Exception
+	 */
+	private int exportData() throws Exception
+	{
+		// Write to a temporary file so a failed export doesn't clobber an old one
+		File tmp = new File( this._file.getPath() + ".tmp" );
+		Writer out = new BufferedWriter( new OutputStreamWriter( new GZIPOutputStream( new FileOutputStream( tmp ) ), "UTF-8" ) );
+		int count = 0;
+		try {
+			out.write( HEADER );
+			out.write( '\n' );
+
+			// The map's iterator doesn't copy it and tolerates changes made meanwhile
+			for ( Map.Entry<String,PlayerData> entry : this._playerData.entrySet() )
+			{
+				PlayerData data = entry.getValue();
+				out.write( entry.getKey() );
+				out.write( '\t' );
+				out.write( Integer.toString( data.getTimeElapsed() ) );
+				out.write( '\t' );
+				out.write( data.isEnabled() ? "1" : "0" );
+				out.write( '\t' );
+				out.write( Integer.toString( data.getEpoch() ) );
+				out.write( '\n' );
+				if ( ++count % BATCH_SIZE == 0 ) this.report( "Exported " + count + " players..." );
+			}
+		} finally {
+			out.close();
+		}
+		if ( this._file.exists() && !this._file.delete() ) throw new Exception( "Could not replace " + this._file.getName() );
+		if ( !tmp.renameTo( this._file ) ) throw new Exception( "Could not write " + this._file.getName() );
+		return count;
+	}
+
+	/**
+	 * Read every record from the file, replacing what we have
+	 * @return Number of records read
+	 * @throws Exception
+	 */
+	private int importData() throws Exception
+	{
+		BufferedReader in = new BufferedReader( new InputStreamReader( new GZIPInputStream( new FileInputStream( this._file ) ), "UTF-8" ) );
+		int count = 0;
+		int skipped = 0;
+		try {
+			String line;
+			while ( ( line = in.readLine() ) != null )
+			{
+				// Skip the header and blank lines
+				if ( line.length() == 0 || line.startsWith( "#" ) ) continue;
+
+				// Parse the line
+				String[] fields = line.split( "\t" );
+				int elapsed, epoch;
+				try {
+					if ( fields.length != 4 ) throw new NumberFormatException();
+					elapsed = Integer.parseInt( fields[1] );
+					epoch = Integer.parseInt( fields[3] );
+				} catch ( NumberFormatException e ) {
+					skipped++;
+					continue;
+				}
+
+				// Replace or add the record
+				PlayerData data = this._playerData.get( fields[0] );
+				if ( data == null )
+				{
+					data = new PlayerData();
+					PlayerData existing = this._playerData.putIfAbsent( fields[0], data );
+					if ( existing != null ) data = existing;
+					else this._names.add( fields[0] );
+				}
+				data.restore( elapsed, fields[2].equals( "1" ), epoch );
+				if ( ++count % BATCH_SIZE == 0 ) this.report( "Imported " + count + " players..." );
+			}
+		} finally {
+			in.close();
+		}
+		if ( skipped > 0 ) this.report( ChatColor.RED + "Skipped " + skipped + " invalid lines!" );
+		this._plugin.requestRefresh();
+		return count;
+	}
+
+	/**
+	 * Send a progress message from the main thread
+	 * @param message
+	 */
+	private void report( final String message )
+	{
+		final CommandSender sender = this._sender;
+		this._plugin.getServer().getScheduler().scheduleSyncDelayedTask( this._plugin, new Runnable() {
+			public void run() { sender.sendMessage( "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] " + message ); }
+		});
+	}
+}
@@ -0,0 +1,33 @@
+package com.psychobit.campfire;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Carries protection deltas between servers
+ * Called from the sync task only, never from the main thread
+ * @author psychobit
+ *
+ */
+public interface SyncTransport
+{
+	/**
+	 * Send local deltas to the other servers
+	 * @param deltas
+	 * @throws IOException
+	 */
+	public void publish( List<ProtectionDelta> deltas ) throws IOException;
+
+	/**
+	 * Receive the next deltas the other servers published since the last poll
+	 * May return only some of them, called again until it returns none
+	 * @return Deltas, in the order they were published
+	 * @throws IOException
+	 */
+	public List<ProtectionDelta> poll() throws IOException;
+
+	/**
+	 * Release any resources held by the transport
+	 */
+	public void close();
+}
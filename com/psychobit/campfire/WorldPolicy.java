@@ -0,0 +1,100 @@
+package com.psychobit.campfire;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * Protection rules that apply to a single world
+ * Worlds without protection have no policy at all
+ * @author psychobit
+ *
+ */
+public class WorldPolicy
+{
+	/**
+	 * Time in seconds a player should be protected by campfire
+	 */
+	private final int _duration;
+
+	/**
+	 * Distance around a player that can't be lava'd or set on fire
+	 */
+	private final int _bufferDist;
+
+	/**
+	 * Should a player's data be reset upon death?
+	 */
+	private final boolean _resetOnDeath;
+
+	/**
+	 * Don't count world guard protected areas
+	 */
+	private final boolean _useWorldGuard;
+
+	/**
+	 * Create a policy
+	 * @param duration Protection duration in seconds
+	 * @param bufferDist Buffer distance in blocks
+	 * @param resetOnDeath Reset protection on death
+	 * @param useWorldGuard Pause the timer in WorldGuard protected areas
+	 */
+	public WorldPolicy( int duration, int bufferDist, boolean resetOnDeath, boolean useWorldGuard )
+	{
+		this._duration = duration;
+		this._bufferDist = bufferDist;
+		this._resetOnDeath = resetOnDeath;
+		this._useWorldGuard = useWorldGuard;
+	}
+
+	/**
+	 * Read a policy from a config section, falling back to the given policy
+	 * for any value the section doesn't define
+	 * @param section Config section for the world
+	 * @param defaults Policy to inherit from
+	 * @return Policy, or null if protection is disabled in the world
+	 */
+	public static WorldPolicy fromConfig( ConfigurationSection section, WorldPolicy defaults )
+	{
+		if ( !section.getBoolean( "Enabled", true ) ) return null;
+		return new WorldPolicy(
+			section.getInt( "Duration", defaults.getDuration() ),
+			section.getInt( "Buffer", defaults.getBufferDist() ),
+			section.getBoolean( "ResetOnDeath", defaults.resetOnDeath() ),
+			section.getBoolean( "WorldGuardAreas", defaults.useWorldGuard() ) );
+	}
+
+	/**
+	 * Get the protection duration
+	 * @return Duration in seconds
+	 */
+	public int getDuration()
+	{
+		return this._duration;
+	}
+
+	/**
+	 * Get the buffer distance
+	 * @return Buffer distance in blocks
+	 */
+	public int getBufferDist()
+	{
+		return this._bufferDist;
+	}
+
+	/**
+	 * Should a player's data be reset upon death?
+	 * @return Reset on death
+	 */
+	public boolean resetOnDeath()
+	{
+		return this._resetOnDeath;
+	}
+
+	/**
+	 * Should WorldGuard protected areas pause the timer?
+	 * @return Use WorldGuard
+	 */
+	public boolean useWorldGuard()
+	{
+		return this._useWorldGuard;
+	}
+}
@@ -0,0 +1,52 @@
+package com.psychobit.campfire;
+
+import java.util.List;
+
+/**
+ * The zones of one world
+ *
+ * WorldGuard resolves its PvP and Invincible flags separately, so regions
+ * setting each flag get their own index. Config zones sit in the PvP index
+ * above every region. A point pauses the timer if the zone that takes
+ * precedence in either index pauses it.
+ * @author psychobit
+ *
+ */
+public class WorldZones
+{
+	/**
+	 * Config zones and regions that set the PvP flag
+	 */
+	private final ZoneIndex _pvp;
+
+	/**
+	 * Regions that set the Invincible flag
+	 */
+	private final ZoneIndex _invincible;
+
+	/**
+	 * Index the zones
+	 * @param pvp Config zones and regions that set the PvP flag
+	 * @param invincible Regions that set the Invincible flag
+	 */
+	public WorldZones( List<Zone> pvp, List<Zone> invincible )
+	{
+		this._pvp = new ZoneIndex( pvp );
+		this._invincible = new ZoneIndex( invincible );
+	}
+
+	/**
+	 * Does the point pause the timer?
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return Inside a pausing zone
+	 */
+	public boolean contains( double x, double y, double z )
+	{
+		Zone zone = this._pvp.find( x, y, z );
+		if ( zone != null && zone.pauses() ) return true;
+		zone = this._invincible.find( x, y, z );
+		return ( zone != null && zone.pauses() );
+	}
+}
@@ -0,0 +1,265 @@
+package com.psychobit.campfire;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * An area where the protection timer is paused
+ * Either a box or an upright cylinder
+ * Zones from the config.yml outrank every WorldGuard region
+ * @author psychobit
+ *
+ */
+public class Zone
+{
+	/**
+	 * Shapes a zone can have
+	 */
+	public enum Shape { BOX, CYLINDER }
+
+	/**
+	 * Name of the zone
+	 */
+	private final String _name;
+
+	/**
+	 * Name of the world the zone is in
+	 */
+	private final String _world;
+
+	/**
+	 * Shape of the zone
+	 */
+	private final Shape _shape;
+
+	/**
+	 * Bounding box of the zone
+	 */
+	private final double _minX, _minY, _minZ, _maxX, _maxY, _maxZ;
+
+	/**
+	 * Squared radius for cylinders
+	 */
+	private final double _radiusSq;
+
+	/**
+	 * Create a zone
+	 * For cylinders the bounding box must be the square around the circle
+	 * @param name
+	 * @param world
+	 * @param shape
+	 * @param minX
+	 * @param minY
+	 * @param minZ
+	 * @param maxX
+	 * @param maxY
+	 * @param maxZ
+	 */
+	public Zone( String name, String world, Shape shape, double minX, double minY, double minZ, double maxX, double maxY, double maxZ )
+	{
+		this._name = name;
+		this._world = world;
+		this._shape = shape;
+		this._minX = Math.min( minX, maxX );
+		this._minY = Math.min( minY, maxY );
+		this._minZ = Math.min( minZ, maxZ );
+		this._maxX = Math.max( minX, maxX );
+		this._maxY = Math.max( minY, maxY );
+		this._maxZ = Math.max( minZ, maxZ );
+		double radius = ( this._maxX - this._minX ) / 2;
+		this._radiusSq = radius * radius;
+	}
+
+	/**
+	 * Read a zone from its section under 'Zones' in the config.yml
+	 * @param name Name of the section
+	 * @param section
+	 * @return Zone, or null if the section is invalid
+	 */
+	public static Zone fromConfig( String name, ConfigurationSection section )
+	{
+		String world = section.getString( "World" );
+		if ( world == null )
+		{
+			System.out.println( "[Campfire] Zone " + name + " has no World, ignoring it!" );
+			return null;
+		}
+		String type = section.getString( "Type", "box" );
+		if ( type.equalsIgnoreCase( "box" ) )
+		{
+			return new Zone( name, world, Shape.BOX,
+				section.getDouble( "X1" ), section.getDouble( "Y1", 0 ), section.getDouble( "Z1" ),
+				section.getDouble( "X2" ), section.getDouble( "Y2", 256 ), section.getDouble( "Z2" ) );
+		} else if ( type.equalsIgnoreCase( "cylinder" ) ) {
+			double x = section.getDouble( "X" );
+			double z = section.getDouble( "Z" );
+			double radius = Math.abs( section.getDouble( "Radius" ) );
+			return new Zone( name, world, Shape.CYLINDER,
+				x - radius, section.getDouble( "Y1", 0 ), z - radius,
+				x + radius, section.getDouble( "Y2", 256 ), z + radius );
+		}
+		System.out.println( "[Campfire] Zone " + name + " has unknown Type " + type + ", ignoring it!" );
+		return null;
+	}
+
+	/**
+	 * Is the point inside the zone?
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return Inside
+	 */
+	public boolean contains( double x, double y, double z )
+	{
+		if ( x < this._minX || x > this._maxX ) return false;
+		if ( y < this._minY || y > this._maxY ) return false;
+		if ( z < this._minZ || z > this._maxZ ) return false;
+		if ( this._shape == Shape.BOX ) return true;
+		double dx = x - this.getCenterX();
+		double dz = z - this.getCenterZ();
+		return dx * dx + dz * dz <= this._radiusSq;
+	}
+
+	/**
+	 * Get the zone's name
+	 * @return Name
+	 */
+	public String getName()
+	{
+		return this._name;
+	}
+
+	/**
+	 * Get the name of the zone's world
+	 * @return World name
+	 */
+	public String getWorld()
+	{
+		return this._world;
+	}
+
+	/**
+	 * Get the lowest X of the bounding box
+	 * @return Min X
+	 */
+	public double getMinX()
+	{
+		return this._minX;
+	}
+
+	/**
+	 * Get the lowest Y of the bounding box
+	 * @return Min Y
+	 */
+	public double getMinY()
+	{
+		return this._minY;
+	}
+
+	/**
+	 * Get the lowest Z of the bounding box
+	 * @return Min Z
+	 */
+	public double getMinZ()
+	{
+		return this._minZ;
+	}
+
+	/**
+	 * Get the highest X of the bounding box
+	 * @return Max X
+	 */
+	public double getMaxX()
+	{
+		return this._maxX;
+	}
+
+	/**
+	 * Get the highest Y of the bounding box
+	 * @return Max Y
+	 */
+	public double getMaxY()
+	{
+		return this._maxY;
+	}
+
+	/**
+	 * Get the highest Z of the bounding box
+	 * @return Max Z
+	 */
+	public double getMaxZ()
+	{
+		return this._maxZ;
+	}
+
+	/**
+	 * Get the center of the zone on the X axis
+	 * @return Center X
+	 */
+	public double getCenterX()
+	{
+		return ( this._minX + this._maxX ) / 2;
+	}
+
+	/**
+	 * Get the center of the zone on the Z axis
+	 * @return Center Z
+	 */
+	public double getCenterZ()
+	{
+		return ( this._minZ + this._maxZ ) / 2;
+	}
+
+	/**
+	 * Get the priority of the zone where zones overlap
+	 * @return Priority
+	 */
+	public int getPriority()
+	{
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Get how many parents the zone has, children outrank their parents
+	 * @return Depth
+	 */
+	public int getDepth()
+	{
+		return 0;
+	}
+
+	/**
+	 * Does being in the zone pause the timer?
+	 * Only false for zones that override a pausing zone they overlap
+	 * @return Pauses
+	 */
+	public boolean pauses()
+	{
+		return true;
+	}
+
+	/**
+	 * Is the zone's flag set to deny?
+	 * Zones from the config.yml act as regions denying PvP
+	 * @return Denies
+	 */
+	public boolean denies()
+	{
+		return true;
+	}
+
+	/**
+	 * Does one zone take precedence over another where they overlap?
+	 * Higher priority wins, then the deeper child, then the zone that
+	 * denies its flag, as in WorldGuard
+	 * @param a
+	 * @param b Zone to beat, may be null
+	 * @return a outranks b
+	 */
+	public static boolean outranks( Zone a, Zone b )
+	{
+		if ( b == null ) return true;
+		if ( a.getPriority() != b.getPriority() ) return a.getPriority() > b.getPriority();
+		if ( a.getDepth() != b.getDepth() ) return a.getDepth() > b.getDepth();
+		return a.denies() && !b.denies();
+	}
+}
@@ -0,0 +1,201 @@
+package com.psychobit.campfire;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Read-only R-tree over the zones of one world
+ *
+ * Packed once with sort-tile-recursive ordering when it is built.
+ * Nodes are kept in flat arrays, so a lookup walks O(log n) nodes
+ * without allocating anything. Where zones overlap the one that
+ * outranks the others is returned.
+ * @author psychobit
+ *
+ */
+public class ZoneIndex
+{
+	/**
+	 * Maximum children per node
+	 */
+	private static final int NODE_SIZE = 8;
+
+	/**
+	 * Zones in packing order
+	 */
+	private final Zone[] _zones;
+
+	/**
+	 * Bounding box of each node
+	 */
+	private final double[] _minX, _minY, _minZ, _maxX, _maxY, _maxZ;
+
+	/**
+	 * Index of each node's first child, a zone for leaves or a node otherwise
+	 */
+	private final int[] _first;
+
+	/**
+	 * Number of children of each node
+	 */
+	private final int[] _count;
+
+	/**
+	 * Whether or not each node is a leaf
+	 */
+	private final boolean[] _leaf;
+
+	/**
+	 * Number of nodes in use
+	 */
+	private int _nodes;
+
+	/**
+	 * Index of the root node, -1 if there are no zones
+	 */
+	private final int _root;
+
+	/**
+	 * Build the index
+	 * @param zones Zones to index
+	 */
+	public ZoneIndex( List<Zone> zones )
+	{
+		this._zones = zones.toArray( new Zone[ zones.size() ] );
+		int capacity = this._zones.length + 16;
+		this._minX = new double[ capacity ];
+		this._minY = new double[ capacity ];
+		this._minZ = new double[ capacity ];
+		this._maxX = new double[ capacity ];
+		this._maxY = new double[ capacity ];
+		this._maxZ = new double[ capacity ];
+		this._first = new int[ capacity ];
+		this._count = new int[ capacity ];
+		this._leaf = new boolean[ capacity ];
+		this._nodes = 0;
+		if ( this._zones.length == 0 )
+		{
+			this._root = -1;
+			return;
+		}
+
+		// Sort into vertical slices by X, then each slice by Z
+		int leaves = ( this._zones.length + NODE_SIZE - 1 ) / NODE_SIZE;
+		int sliceSize = ( int ) Math.ceil( Math.sqrt( leaves ) ) * NODE_SIZE;
+		Arrays.sort( this._zones, new Comparator<Zone>() {
+			public int compare( Zone a, Zone b ) { return Double.compare( a.getCenterX(), b.getCenterX() ); }
+		});
+		for ( int i = 0; i < this._zones.length; i += sliceSize )
+		{
+			Arrays.sort( this._zones, i, Math.min( i + sliceSize, this._zones.length ), new Comparator<Zone>() {
+				public int compare( Zone a, Zone b ) { return Double.compare( a.getCenterZ(), b.getCenterZ() ); }
+			});
+		}
+
+		// Pack the zones into leaves
+		int levelStart = this._nodes;
+		for ( int i = 0; i < this._zones.length; i += NODE_SIZE )
+		{
+			this.addNode( true, i, Math.min( NODE_SIZE, this._zones.length - i ) );
+		}
+
+		// Pack each level into the next until there is one node left
+		int levelEnd = this._nodes;
+		while ( levelEnd - levelStart > 1 )
+		{
+			for ( int i = levelStart; i < levelEnd; i += NODE_SIZE )
+			{
+				this.addNode( false, i, Math.min( NODE_SIZE, levelEnd - i ) );
+			}
+			levelStart = levelEnd;
+			levelEnd = this._nodes;
+		}
+		this._root = levelStart;
+	}
+
+	/**
+	 * Find the zone that takes precedence at a point
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return Highest ranked zone containing the point, or null if there is none
+	 */
+	public Zone find( double x, double y, double z )
+	{
+		if ( this._root < 0 ) return null;
+		return this.search( this._root, x, y, z, null );
+	}
+
+	/**
+	 * Get the number of zones indexed
+	 * @return Zone count
+	 */
+	public int size()
+	{
+		return this._zones.length;
+	}
+
+	/**
+	 * Search a node for a zone containing the point that outranks the best so far
+	 * @param node
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param best Best zone found so far, may be null
+	 * @return Best zone found
+	 */
+	private Zone search( int node, double x, double y, double z, Zone best )
+	{
+		if ( x < this._minX[ node ] || x > this._maxX[ node ] ) return best;
+		if ( y < this._minY[ node ] || y > this._maxY[ node ] ) return best;
+		if ( z < this._minZ[ node ] || z > this._maxZ[ node ] ) return best;
+		int end = this._first[ node ] + this._count[ node ];
+		for ( int i = this._first[ node ]; i < end; i++ )
+		{
+			if ( !this._leaf[ node ] ) best = this.search( i, x, y, z, best );
+			else if ( this._zones[ i ].contains( x, y, z ) && Zone.outranks( this._zones[ i ], best ) ) best = this._zones[ i ];
+		}
+		return best;
+	}
+
+	/**
+	 * Add a node covering a run of children
+	 * @param leaf Children are zones rather than nodes
+	 * @param first Index of the first child
+	 * @param count Number of children
+	 */
+	private void addNode( boolean leaf, int first, int count )
+	{
+		int node = this._nodes++;
+		this._leaf[ node ] = leaf;
+		this._first[ node ] = first;
+		this._count[ node ] = count;
+		this._minX[ node ] = this._minY[ node ] = this._minZ[ node ] = Double.POSITIVE_INFINITY;
+		this._maxX[ node ] = this._maxY[ node ] = this._maxZ[ node ] = Double.NEGATIVE_INFINITY;
+		for ( int i = first; i < first + count; i++ )
+		{
+			if ( leaf )
+			{
+				Zone zone = this._zones[ i ];
+				this.grow( node, zone.getMinX(), zone.getMinY(), zone.getMinZ(), zone.getMaxX(), zone.getMaxY(), zone.getMaxZ() );
+			} else {
+				this.grow( node, this._minX[ i ], this._minY[ i ], this._minZ[ i ], this._maxX[ i ], this._maxY[ i ], this._maxZ[ i ] );
+			}
+		}
+	}
+
+	/**
+	 * Grow a node's bounding box to cover a child's
+	 * @param node
+	 */
+	private void grow( int node, double minX, double minY, double minZ, double maxX, double maxY, double maxZ )
+	{
+		this._minX[ node ] = Math.min( this._minX[ node ], minX );
+		this._minY[ node ] = Math.min( this._minY[ node ], minY );
+		this._minZ[ node ] = Math.min( this._minZ[ node ], minZ );
+		this._maxX[ node ] = Math.max( this._maxX[ node ], maxX );
+		this._maxY[ node ] = Math.max( this._maxY[ node ], maxY );
+		this._maxZ[ node ] = Math.max( this._maxZ[ node ], maxZ );
+	}
+}
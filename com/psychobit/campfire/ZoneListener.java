@@ -0,0 +1,39 @@
+package com.psychobit.campfire;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerMoveEvent;
+
+/**
+ * Tracks protected players entering and leaving zones
+ * Only registered while a protected player is online and a world has zones
+ * @author psychobit
+ *
+ */
+public class ZoneListener implements Listener
+{
+	/**
+	 * Plugin doing the actual work
+	 */
+	private final Campfire _plugin;
+
+	/**
+	 * Create the listener
+	 * @param plugin
+	 */
+	public ZoneListener( Campfire plugin )
+	{
+		this._plugin = plugin;
+	}
+
+	/**
+	 * Update player's protected zone status
+	 * @param e
+	 */
+	@EventHandler( priority = EventPriority.LOW )
+	public void onMove( PlayerMoveEvent e )
+	{
+		this._plugin.onMove( e );
+	}
+}